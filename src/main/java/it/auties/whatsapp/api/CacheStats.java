@@ -0,0 +1,21 @@
+package it.auties.whatsapp.api;
+
+/**
+ * The statistics of a cache used by {@link Whatsapp} since the connection was created
+ *
+ * @param hits   the number of lookups that were served by the cache
+ * @param misses the number of lookups that required a query to Whatsapp
+ */
+public record CacheStats(long hits, long misses) {
+    /**
+     * Returns the ratio between the hits and the total number of lookups
+     *
+     * @return a value between zero and one, or zero if no lookup happened yet
+     */
+    public double hitRate() {
+        var total = hits + misses;
+        return total == 0 ?
+                0 :
+                (double) hits / total;
+    }
+}
@@ -0,0 +1,83 @@
+package it.auties.whatsapp.api;
+
+import it.auties.whatsapp.api.Whatsapp.Options;
+import it.auties.whatsapp.serialization.ControllerProviderLoader;
+import it.auties.whatsapp.util.Validate;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class used to restore many sessions at once.
+ * Sessions are deserialized in parallel on a bounded executor, while connections are started one at a time with a fixed
+ * interval between them so that the server and the machine are not flooded with handshakes.
+ */
+final class ConnectionRestorer {
+    private final Options options;
+    private final ThreadPoolExecutor executor;
+    private final long connectInterval;
+    private final AtomicLong nextConnect;
+
+    ConnectionRestorer(Options options) {
+        Validate.isTrue(options.restoreParallelism() > 0, "Invalid restore parallelism: %s",
+                        options.restoreParallelism());
+        this.options = options;
+        this.executor = new ThreadPoolExecutor(options.restoreParallelism(), options.restoreParallelism(), 60L,
+                                               TimeUnit.SECONDS, new LinkedBlockingQueue<>(), this::createThread);
+        executor.allowCoreThreadTimeOut(true);
+        this.connectInterval = options.restoreConnectInterval()
+                .toNanos();
+        this.nextConnect = new AtomicLong(System.nanoTime());
+    }
+
+    private Thread createThread(Runnable runnable) {
+        var thread = new Thread(runnable, "whatsapp-restore");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    List<Whatsapp> load() {
+        return loadAll().values()
+                .stream()
+                .map(CompletableFuture::join)
+                .toList();
+    }
+
+    Map<Integer, CompletableFuture<Whatsapp>> connect() {
+        var results = new LinkedHashMap<Integer, CompletableFuture<Whatsapp>>();
+        loadAll().forEach((id, future) -> results.put(id, future.thenComposeAsync(this::connect, executor)));
+        return results;
+    }
+
+    private Map<Integer, CompletableFuture<Whatsapp>> loadAll() {
+        var results = new LinkedHashMap<Integer, CompletableFuture<Whatsapp>>();
+        findIds().forEach(id -> results.put(id, CompletableFuture.supplyAsync(
+                () -> Whatsapp.newConnection(options.withId(id)), executor)));
+        return results;
+    }
+
+    private Collection<Integer> findIds() {
+        return ControllerProviderLoader.findAllIds(options.defaultSerialization());
+    }
+
+    private CompletableFuture<Whatsapp> connect(Whatsapp whatsapp) {
+        var delay = reserveConnectSlot() - System.nanoTime();
+        var connectExecutor = delay <= 0 ?
+                executor :
+                CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor);
+        return CompletableFuture.supplyAsync(() -> whatsapp, connectExecutor)
+                .thenCompose(Whatsapp::connect);
+    }
+
+    private long reserveConnectSlot() {
+        var now = System.nanoTime();
+        return nextConnect.updateAndGet(last -> Math.max(last, now) + connectInterval) - connectInterval;
+    }
+}
@@ -0,0 +1,18 @@
+package it.auties.whatsapp.api;
+
+/**
+ * The progress of the presence subscriptions that are sent automatically by {@link Whatsapp}
+ *
+ * @param subscribed the number of contacts whose presence is subscribed
+ * @param pending    the number of contacts waiting to be subscribed
+ */
+public record PresenceSubscriptionProgress(int subscribed, int pending) {
+    /**
+     * Returns whether all the pending subscriptions were sent
+     *
+     * @return a boolean
+     */
+    public boolean isComplete() {
+        return pending == 0;
+    }
+}
@@ -1,9 +1,7 @@
 package it.auties.whatsapp.api;
 
 import it.auties.bytes.Bytes;
-import it.auties.linkpreview.LinkPreview;
 import it.auties.linkpreview.LinkPreviewMedia;
-import it.auties.linkpreview.LinkPreviewResult;
 import it.auties.whatsapp.controller.Keys;
 import it.auties.whatsapp.controller.Store;
 import it.auties.whatsapp.crypto.AesGmc;
@@ -34,6 +32,7 @@ import it.auties.whatsapp.model.request.Attributes;
 import it.auties.whatsapp.model.request.Node;
 import it.auties.whatsapp.model.request.NodeHandler;
 import it.auties.whatsapp.model.request.ReplyHandler;
+import it.auties.whatsapp.model.request.Request;
 import it.auties.whatsapp.model.response.ContactStatusResponse;
 import it.auties.whatsapp.model.response.HasWhatsappResponse;
 import it.auties.whatsapp.model.signal.auth.Version;
@@ -52,10 +51,14 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -79,11 +82,21 @@ import static java.util.Objects.requireNonNullElseGet;
  */
 @SuppressWarnings({"unused", "UnusedReturnValue"})
 public class Whatsapp {
+    /**
+     * The resolver used to generate link previews, shared by all sessions
+     */
+    private static final LinkPreviewResolver PREVIEWS = LinkPreviewResolver.defaultResolver();
+
     /**
      * The socket associated with this session
      */
     private final SocketHandler socketHandler;
 
+    /**
+     * The last message queued for each chat, used to send messages in the order they were queued
+     */
+    private final Map<ContactJid, CompletableFuture<MessageInfo>> pendingSends;
+
     private Whatsapp(Options options) {
         this(options, Store.of(options.id(), options.defaultSerialization()),
              Keys.of(options.id(), options.defaultSerialization()));
@@ -91,6 +104,7 @@ public class Whatsapp {
 
     private Whatsapp(Options options, Store store, Keys keys) {
         this.socketHandler = new SocketHandler(this, options, store, keys);
+        this.pendingSends = new ConcurrentHashMap<>();
         if (!options.autodetectListeners()) {
             return;
         }
@@ -205,7 +219,32 @@ public class Whatsapp {
      * @return a non-null List
      */
     public static List<Whatsapp> listConnections(@NonNull Options options) {
-        return streamConnections(options).toList();
+        return new ConnectionRestorer(options).load();
+    }
+
+    /**
+     * Restores and connects all known connections.
+     * Connections are deserialized in parallel using at most {@link Options#restoreParallelism()} threads and connected
+     * one at a time, waiting {@link Options#restoreConnectInterval()} between each connection.
+     *
+     * @return a non-null map whose keys are the ids of the connections and whose values complete when the connection is
+     * logged in
+     */
+    public static Map<Integer, CompletableFuture<Whatsapp>> restoreConnections() {
+        return restoreConnections(defaultOptions());
+    }
+
+    /**
+     * Restores and connects all known connections.
+     * Connections are deserialized in parallel using at most {@link Options#restoreParallelism()} threads and connected
+     * one at a time, waiting {@link Options#restoreConnectInterval()} between each connection.
+     *
+     * @param options the non-null options
+     * @return a non-null map whose keys are the ids of the connections and whose values complete when the connection is
+     * logged in
+     */
+    public static Map<Integer, CompletableFuture<Whatsapp>> restoreConnections(@NonNull Options options) {
+        return new ConnectionRestorer(options).connect();
     }
 
     /**
@@ -1102,6 +1141,44 @@ public class Whatsapp {
                 .thenApplyAsync(ignored -> jid);
     }
 
+    /**
+     * Returns the progress of the presence subscriptions sent automatically when
+     * {@link Options#automaticallySubscribeToPresences()} is enabled
+     *
+     * @return a non-null progress
+     */
+    public PresenceSubscriptionProgress presenceSubscriptionProgress() {
+        return socketHandler.presenceSubscriptionProgress();
+    }
+
+    /**
+     * Returns the statistics of the cache of group participants used to send messages to groups
+     *
+     * @return a non-null statistics object
+     */
+    public CacheStats groupsCacheStats() {
+        return socketHandler.groupsCacheStats();
+    }
+
+    /**
+     * Returns the statistics of the cache of the devices used to encrypt outgoing messages
+     *
+     * @return a non-null statistics object
+     */
+    public CacheStats devicesCacheStats() {
+        return socketHandler.devicesCacheStats();
+    }
+
+    /**
+     * Returns the service used by this session to upload and download medias.
+     * Its concurrency is configured by {@link Options#mediaTransfersConcurrency()}.
+     *
+     * @return a non-null service
+     */
+    public MediaTransferService mediaTransfers() {
+        return socketHandler.mediaTransfers();
+    }
+
     /**
      * Remove a reaction from a message
      *
@@ -1244,15 +1321,30 @@ public class Whatsapp {
                                    null :
                                    info.senderJid()
                                            .toUserJid());
-        createPreview(info);
-        parseEphemeralMessage(info);
-        fixButtons(info);
-        addMessageSecret(info);
-        var future = info.chat()
-                .hasUnreadMessages() ?
-                markRead(info.chat()).thenComposeAsync(ignored -> socketHandler.sendMessage(info)) :
-                socketHandler.sendMessage(info);
-        return future.thenApplyAsync(ignored -> info);
+        var preview = createPreview(info);
+        return enqueueSend(info.chatJid(), () -> preview.thenComposeAsync(ignored -> {
+                    parseEphemeralMessage(info);
+                    fixButtons(info);
+                    addMessageSecret(info);
+                    return info.chat()
+                            .hasUnreadMessages() ?
+                            markRead(info.chat()).thenComposeAsync(read -> socketHandler.sendMessage(info)) :
+                            socketHandler.sendMessage(info);
+                })
+                .thenApplyAsync(ignored -> info));
+    }
+
+    // Previews are resolved in parallel, but a message is sent only after the previous one in the same chat
+    // A send that never completes doesn't block the chat: the next one waits for it at most as long as a request
+    private CompletableFuture<MessageInfo> enqueueSend(ContactJid chat, Supplier<CompletableFuture<MessageInfo>> send) {
+        var result = pendingSends.compute(chat, (key, previous) -> Objects.requireNonNullElseGet(previous,
+                        () -> CompletableFuture.<MessageInfo>completedFuture(null))
+                .copy()
+                .completeOnTimeout(null, Request.TIMEOUT, TimeUnit.SECONDS)
+                .handle((ignored, throwable) -> null)
+                .thenCompose(ignored -> send.get()));
+        result.whenComplete((ignored, throwable) -> pendingSends.remove(chat, result));
+        return result;
     }
 
     private void addMessageSecret(MessageInfo info) {
@@ -1299,112 +1391,94 @@ public class Whatsapp {
                              .toViewOnce());
     }
 
-    private void createPreview(MessageInfo info) {
+    private CompletableFuture<Void> createPreview(MessageInfo info) {
         switch (info.message()
                 .content()) {
             case TextMessage textMessage -> {
                 if (socketHandler.options()
                         .textPreviewSetting() == TextPreviewSetting.DISABLED) {
-                    return;
+                    return CompletableFuture.completedFuture(null);
                 }
 
-                var match = LinkPreview.createPreview(textMessage.text())
-                        .orElse(null);
-                if (match == null) {
-                    return;
-                }
-
-                if (socketHandler.options()
-                        .textPreviewSetting() == TextPreviewSetting.ENABLED_WITH_INFERENCE && !match.text()
-                        .equals(match.result()
-                                        .uri()
-                                        .toString())) {
-                    var parsed = textMessage.text()
-                            .replace(match.text(), match.result()
-                                    .uri()
-                                    .toString());
-                    textMessage.text(parsed);
-                }
-
-                var imageUri = match.result()
-                        .images()
-                        .stream()
-                        .reduce(Whatsapp::compareDimensions)
-                        .map(LinkPreviewMedia::uri)
-                        .orElse(null);
-                var videoUri = match.result()
-                        .videos()
-                        .stream()
-                        .reduce(Whatsapp::compareDimensions)
-                        .map(LinkPreviewMedia::uri)
-                        .orElse(null);
-                textMessage.canonicalUrl(Objects.requireNonNullElse(videoUri, match.result()
-                                .uri())
-                                                 .toString());
-                textMessage.matchedText(match.result()
-                                                .uri()
-                                                .toString());
-                textMessage.thumbnail(Medias.getPreview(imageUri)
-                                              .orElse(null));
-                textMessage.description(match.result()
-                                                .siteDescription());
-                textMessage.title(match.result()
-                                          .title());
-                textMessage.previewType(videoUri != null ?
-                                                VIDEO :
-                                                NONE);
+                return awaitPreview(PREVIEWS.resolve(textMessage.text())).thenAccept(
+                        preview -> preview.ifPresent(match -> attributeTextPreview(textMessage, match)));
             }
 
-            case GroupInviteMessage inviteMessage -> {
-                if (!(info.message()
-                        .content() instanceof GroupInviteMessage invite)) {
-                    return;
-                }
-
+            case GroupInviteMessage invite -> {
                 // This is not needed probably, but Whatsapp uses a text message by default, so maybe it makes sense
                 Validate.isTrue(invite.code() != null, "Invalid message code");
                 var url = "https://chat.whatsapp.com/%s".formatted(invite.code());
-                var preview = LinkPreview.createPreview(URI.create(url))
-                        .stream()
-                        .map(LinkPreviewResult::images)
-                        .map(Collection::stream)
-                        .map(Stream::findFirst)
-                        .flatMap(Optional::stream)
-                        .findFirst()
-                        .map(LinkPreviewMedia::uri)
-                        .orElse(null);
-                var replacement = TextMessage.builder()
-                        .text(invite.caption() != null ?
-                                      "%s: %s".formatted(invite.caption(), url) :
-                                      url)
-                        .description("WhatsApp Group Invite")
-                        .title(invite.groupName())
-                        .previewType(NONE)
-                        .thumbnail(readGroupThumbnail(preview))
-                        .matchedText(url)
-                        .canonicalUrl(url)
-                        .build();
-                info.message(MessageContainer.of(replacement));
+                return awaitPreview(PREVIEWS.resolve(URI.create(url))).thenAccept(preview -> {
+                    var replacement = TextMessage.builder()
+                            .text(invite.caption() != null ?
+                                          "%s: %s".formatted(invite.caption(), url) :
+                                          url)
+                            .description("WhatsApp Group Invite")
+                            .title(invite.groupName())
+                            .previewType(NONE)
+                            .thumbnail(preview.map(LinkPreviewResolver.Preview::thumbnail)
+                                               .orElse(null))
+                            .matchedText(url)
+                            .canonicalUrl(url)
+                            .build();
+                    info.message(MessageContainer.of(replacement));
+                });
             }
 
             default -> {
+                return CompletableFuture.completedFuture(null);
             }
         }
     }
 
-    public byte[] readGroupThumbnail(URI preview) {
-        try {
-            if (preview == null) {
-                return null;
-            }
+    private <T> CompletableFuture<Optional<T>> awaitPreview(CompletableFuture<Optional<T>> preview) {
+        var timeout = socketHandler.options()
+                .linkPreviewTimeout();
+        var result = preview.copy()
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        if (!socketHandler.options()
+                .sendWithoutPreviewOnTimeout()) {
+            return result;
+        }
 
-            return preview.toURL()
-                    .openConnection()
-                    .getInputStream()
-                    .readAllBytes();
-        } catch (Throwable throwable) {
-            return null;
+        return result.exceptionally(ignored -> Optional.empty());
+    }
+
+    private void attributeTextPreview(TextMessage textMessage, LinkPreviewResolver.Preview preview) {
+        var uri = preview.result()
+                .uri()
+                .toString();
+        if (socketHandler.options()
+                .textPreviewSetting() == TextPreviewSetting.ENABLED_WITH_INFERENCE && !preview.text()
+                .equals(uri)) {
+            textMessage.text(textMessage.text()
+                                     .replace(preview.text(), uri));
         }
+
+        var videoUri = preview.result()
+                .videos()
+                .stream()
+                .reduce(Whatsapp::compareDimensions)
+                .map(LinkPreviewMedia::uri)
+                .orElse(null);
+        textMessage.canonicalUrl(Objects.requireNonNullElse(videoUri, preview.result()
+                        .uri())
+                                         .toString());
+        textMessage.matchedText(uri);
+        textMessage.thumbnail(preview.thumbnail());
+        textMessage.description(preview.result()
+                                        .siteDescription());
+        textMessage.title(preview.result()
+                                  .title());
+        textMessage.previewType(videoUri != null ?
+                                        VIDEO :
+                                        NONE);
+    }
+
+    public byte[] readGroupThumbnail(URI preview) {
+        return PREVIEWS.thumbnail(preview)
+                .join()
+                .orElse(null);
     }
 
     private void parseEphemeralMessage(MessageInfo info) {
@@ -1859,14 +1933,43 @@ public class Whatsapp {
      * @return a CompletableFuture
      */
     public <T extends ContactJidProvider> CompletableFuture<T> mute(@NonNull T chat, @NonNull ChatMute mute) {
+        return socketHandler.pushPatch(createMuteRequest(chat, mute))
+                .thenApplyAsync(ignored -> chat);
+    }
+
+    /**
+     * Mutes many chats indefinitely using a single app state patch
+     *
+     * @param chats the non-null target chats
+     * @return a CompletableFuture
+     */
+    public <T extends ContactJidProvider> CompletableFuture<Collection<T>> mute(@NonNull Collection<T> chats) {
+        return mute(chats, ChatMute.muted());
+    }
+
+    /**
+     * Mutes many chats using a single app state patch
+     *
+     * @param chats the non-null target chats
+     * @param mute  the type of mute
+     * @return a CompletableFuture
+     */
+    public <T extends ContactJidProvider> CompletableFuture<Collection<T>> mute(@NonNull Collection<T> chats,
+            @NonNull ChatMute mute) {
+        var requests = chats.stream()
+                .map(chat -> createMuteRequest(chat, mute))
+                .toList();
+        return socketHandler.pushPatches(requests)
+                .thenApplyAsync(ignored -> chats);
+    }
+
+    private PatchRequest createMuteRequest(ContactJidProvider chat, ChatMute mute) {
         var muteAction = MuteAction.of(true, mute.type() == ChatMute.Type.MUTED_FOR_TIMEFRAME ?
                 mute.endTimeStamp() * 1000L :
                 mute.endTimeStamp());
         var syncAction = ActionValueSync.of(muteAction);
-        var request = PatchRequest.of(REGULAR_HIGH, syncAction, SET, 2, chat.toJid()
+        return PatchRequest.of(REGULAR_HIGH, syncAction, SET, 2, chat.toJid()
                 .toString());
-        return socketHandler.pushPatch(request)
-                .thenApplyAsync(ignored -> chat);
     }
 
     /**
@@ -1876,12 +1979,29 @@ public class Whatsapp {
      * @return a CompletableFuture
      */
     public <T extends ContactJidProvider> CompletableFuture<T> unmute(@NonNull T chat) {
+        return socketHandler.pushPatch(createUnmuteRequest(chat))
+                .thenApplyAsync(ignored -> chat);
+    }
+
+    /**
+     * Unmutes many chats using a single app state patch
+     *
+     * @param chats the non-null target chats
+     * @return a CompletableFuture
+     */
+    public <T extends ContactJidProvider> CompletableFuture<Collection<T>> unmute(@NonNull Collection<T> chats) {
+        var requests = chats.stream()
+                .map(this::createUnmuteRequest)
+                .toList();
+        return socketHandler.pushPatches(requests)
+                .thenApplyAsync(ignored -> chats);
+    }
+
+    private PatchRequest createUnmuteRequest(ContactJidProvider chat) {
         var muteAction = MuteAction.of(false, null);
         var syncAction = ActionValueSync.of(muteAction);
-        var request = PatchRequest.of(REGULAR_HIGH, syncAction, SET, 2, chat.toJid()
+        return PatchRequest.of(REGULAR_HIGH, syncAction, SET, 2, chat.toJid()
                 .toString());
-        return socketHandler.pushPatch(request)
-                .thenApplyAsync(ignored -> chat);
     }
 
     /**
@@ -1969,6 +2089,24 @@ public class Whatsapp {
                 .thenApplyAsync(ignored -> chat);
     }
 
+    /**
+     * Marks many chats as read using a single app state patch
+     *
+     * @param chats the non-null target chats
+     * @return a CompletableFuture
+     */
+    public <T extends ContactJidProvider> CompletableFuture<Collection<T>> markRead(@NonNull Collection<T> chats) {
+        return mark(chats, true).thenComposeAsync(ignored -> markAllAsRead(chats))
+                .thenApplyAsync(ignored -> chats);
+    }
+
+    private CompletableFuture<Void> markAllAsRead(Collection<? extends ContactJidProvider> chats) {
+        var all = chats.stream()
+                .map(this::markAllAsRead)
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(all);
+    }
+
     private CompletableFuture<Void> markAllAsRead(ContactJidProvider chat) {
         var all = socketHandler.store()
                 .findChatByJid(chat.toJid())
@@ -1990,14 +2128,35 @@ public class Whatsapp {
         return mark(chat, false);
     }
 
+    /**
+     * Marks many chats as unread using a single app state patch
+     *
+     * @param chats the non-null target chats
+     * @return a CompletableFuture
+     */
+    public <T extends ContactJidProvider> CompletableFuture<Collection<T>> markUnread(@NonNull Collection<T> chats) {
+        return mark(chats, false);
+    }
+
     private <T extends ContactJidProvider> CompletableFuture<T> mark(@NonNull T chat, boolean read) {
+        return socketHandler.pushPatch(createMarkRequest(chat, read))
+                .thenApplyAsync(ignored -> chat);
+    }
+
+    private <T extends ContactJidProvider> CompletableFuture<Collection<T>> mark(Collection<T> chats, boolean read) {
+        var requests = chats.stream()
+                .map(chat -> createMarkRequest(chat, read))
+                .toList();
+        return socketHandler.pushPatches(requests)
+                .thenApplyAsync(ignored -> chats);
+    }
+
+    private PatchRequest createMarkRequest(ContactJidProvider chat, boolean read) {
         var range = createRange(chat, false);
         var markAction = MarkChatAsReadAction.of(read, range);
         var syncAction = ActionValueSync.of(markAction);
-        var request = PatchRequest.of(REGULAR_LOW, syncAction, SET, 3, chat.toJid()
+        return PatchRequest.of(REGULAR_LOW, syncAction, SET, 3, chat.toJid()
                 .toString());
-        return socketHandler.pushPatch(request)
-                .thenApplyAsync(ignored -> chat);
     }
 
     /**
@@ -2081,14 +2240,58 @@ public class Whatsapp {
         return archive(chat, false);
     }
 
+    /**
+     * Archives many chats using a single app state patch.
+     * If any of said chats is pinned, it will be unpinned.
+     *
+     * @param chats the non-null target chats
+     * @return a CompletableFuture
+     */
+    public <T extends ContactJidProvider> CompletableFuture<Collection<T>> archive(@NonNull Collection<T> chats) {
+        return archive(chats, true);
+    }
+
+    /**
+     * Unarchives many chats using a single app state patch
+     *
+     * @param chats the non-null target chats
+     * @return a CompletableFuture
+     */
+    public <T extends ContactJidProvider> CompletableFuture<Collection<T>> unarchive(@NonNull Collection<T> chats) {
+        return archive(chats, false);
+    }
+
     private <T extends ContactJidProvider> CompletableFuture<T> archive(T chat, boolean archive) {
+        return socketHandler.pushPatch(createArchiveRequest(chat, archive))
+                .thenApplyAsync(ignored -> chat);
+    }
+
+    private <T extends ContactJidProvider> CompletableFuture<Collection<T>> archive(Collection<T> chats,
+            boolean archive) {
+        var requests = chats.stream()
+                .map(chat -> createArchiveRequest(chat, archive))
+                .toList();
+        return socketHandler.pushPatches(requests)
+                .thenApplyAsync(ignored -> chats);
+    }
+
+    private PatchRequest createArchiveRequest(ContactJidProvider chat, boolean archive) {
         var range = createRange(chat, false);
         var archiveAction = ArchiveChatAction.of(archive, range);
         var syncAction = ActionValueSync.of(archiveAction);
-        var request = PatchRequest.of(REGULAR_LOW, syncAction, SET, 3, chat.toJid()
+        return PatchRequest.of(REGULAR_LOW, syncAction, SET, 3, chat.toJid()
                 .toString());
-        return socketHandler.pushPatch(request)
-                .thenApplyAsync(ignored -> chat);
+    }
+
+    /**
+     * Pushes many app state patches using as few requests as possible.
+     * All the patches that target the same collection are encoded in a single patch.
+     *
+     * @param requests the non-null patches to push
+     * @return a CompletableFuture
+     */
+    public CompletableFuture<Void> pushPatches(@NonNull Collection<PatchRequest> requests) {
+        return socketHandler.pushPatches(requests);
     }
 
     /**
@@ -2565,12 +2768,29 @@ public class Whatsapp {
         private final boolean defaultSerialization = true;
 
         /**
-         * Whether the api should automatically subscribe to all contacts' presences to have them always up to date.
+         * Whether the api should automatically subscribe to the presences of the contacts that have a chat, and of new
+         * contacts, to have them always up to date.
+         * Subscriptions are sent starting from the most recently active chats and are rate limited according to
+         * {@link Options#presenceSubscriptionsPerSecond()} and {@link Options#presenceSubscriptionsBurst()}.
          * Alternatively, you can subscribe manually to the ones you need using {@link Whatsapp#subscribeToPresence(ContactJidProvider)}
          */
         @Default
         private final boolean automaticallySubscribeToPresences = true;
 
+        /**
+         * The number of presence subscriptions that are sent automatically each second.
+         * By default, 20.
+         */
+        @Default
+        private final int presenceSubscriptionsPerSecond = 20;
+
+        /**
+         * The maximum number of presence subscriptions that can be sent automatically at once.
+         * By default, 50.
+         */
+        @Default
+        private final int presenceSubscriptionsBurst = 50;
+
         /**
          * Whether a preview should be automatically generated and attached to text messages that contain links.
          * By default, it's enabled with inference.
@@ -2578,6 +2798,22 @@ public class Whatsapp {
         @Default
         private final TextPreviewSetting textPreviewSetting = TextPreviewSetting.ENABLED_WITH_INFERENCE;
 
+        /**
+         * The maximum amount of time that a message waits for its link preview to be generated.
+         * By default, five seconds.
+         */
+        @Default
+        @NonNull
+        private final Duration linkPreviewTimeout = Duration.ofSeconds(5);
+
+        /**
+         * Whether a message should be sent without a preview if it cannot be generated within {@link Options#linkPreviewTimeout}.
+         * If this option is disabled, the message is not sent and the future fails with a {@link java.util.concurrent.TimeoutException}.
+         * By default, this option is enabled.
+         */
+        @Default
+        private final boolean sendWithoutPreviewOnTimeout = true;
+
         /**
          * The version of WhatsappWeb to use.
          * If the version is too outdated, the server will refuse to connect.
@@ -2622,6 +2858,84 @@ public class Whatsapp {
         @Default
         private int listenersLimit = UNLIMITED_LISTENERS;
 
+        /**
+         * The number of pre keys that are generated and uploaded to Whatsapp at once.
+         * By default, 30.
+         */
+        @Default
+        private int preKeysBatchSize = 30;
+
+        /**
+         * The number of pre keys available on Whatsapp's servers under which a new batch is uploaded.
+         * By default, 5.
+         */
+        @Default
+        private int preKeysLowWatermark = 5;
+
+        /**
+         * The number of threads used to deserialize sessions when restoring many connections at once.
+         * By default, the number of available processors.
+         */
+        @Default
+        private int restoreParallelism = Runtime.getRuntime()
+                .availableProcessors();
+
+        /**
+         * The minimum interval between two connections when restoring many connections at once.
+         * By default, 250 milliseconds.
+         */
+        @Default
+        @NonNull
+        private Duration restoreConnectInterval = Duration.ofMillis(250);
+
+        /**
+         * The amount of time that the delivery receipts for incoming messages are held so that the receipts for the same
+         * chat, participant and type can be sent together.
+         * If zero, receipts are sent as soon as a message is received.
+         * By default, 100 milliseconds.
+         */
+        @Default
+        @NonNull
+        private Duration receiptsBatchWindow = Duration.ofMillis(100);
+
+        /**
+         * The maximum number of messages acknowledged by a single delivery receipt.
+         * A receipt is sent as soon as this size is reached, even if the batch window hasn't elapsed yet.
+         * By default, 50.
+         */
+        @Default
+        private int receiptsBatchSize = 50;
+
+        /**
+         * The interval at which the presence and chat state updates sent by Whatsapp are delivered to the listeners.
+         * Only the latest update for each contact in a chat is kept between two ticks, so that states that are
+         * immediately superseded, like typing indicators in busy groups, are not processed at all.
+         * If zero, every update is delivered as soon as it's received.
+         * By default, 250 milliseconds.
+         */
+        @Default
+        @NonNull
+        private Duration presenceUpdatesInterval = Duration.ofMillis(250);
+
+        /**
+         * The age after which the cached participants of a group, or devices of a user, are refreshed.
+         * Cached entries are kept up to date by the notifications sent by Whatsapp, so this interval only limits how
+         * long a missed notification can go unnoticed: stale entries are still used to send messages while they are
+         * refreshed in the background.
+         * By default, 1 hour.
+         */
+        @Default
+        @NonNull
+        private Duration recipientsCacheRefreshInterval = Duration.ofHours(1);
+
+        /**
+         * The maximum number of media uploads and downloads that can run at the same time for this session.
+         * A streamed download holds its slot until its stream is closed.
+         * By default, 16.
+         */
+        @Default
+        private int mediaTransfersConcurrency = 16;
+
         /**
          * Constructs a new instance of WhatsappConfiguration with default options
          *
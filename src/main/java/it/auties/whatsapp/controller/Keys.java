@@ -25,8 +25,8 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicLong;
-
-import static java.util.Objects.requireNonNullElseGet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This controller holds the cryptographic-related data regarding a WhatsappWeb session
@@ -82,6 +82,14 @@ public final class Keys
     @NonNull
     private ConcurrentLinkedDeque<SignalPreKeyPair> preKeys = new ConcurrentLinkedDeque<>();
 
+    /**
+     * The pre keys indexed by their id
+     */
+    @Default
+    @NonNull
+    @JsonIgnore
+    private Map<Integer, SignalPreKeyPair> preKeysIndex = new ConcurrentHashMap<>();
+
     /**
      * The companion secret key
      */
@@ -211,11 +219,20 @@ public final class Keys
      * @return a non-null SenderKeyRecord
      */
     public SenderKeyRecord findSenderKeyByName(@NonNull SenderKeyName name) {
-        return requireNonNullElseGet(senderKeys.get(name), () -> {
-            var record = new SenderKeyRecord();
-            senderKeys.put(name, record);
-            return record;
-        });
+        return senderKeys.computeIfAbsent(name, ignored -> new SenderKeyRecord());
+    }
+
+    /**
+     * Returns the number of message keys retained by the sender keys of each group
+     *
+     * @return a non-null map whose keys are group ids and whose values are the number of retained message keys
+     */
+    public Map<String, Integer> senderKeysFootprint() {
+        return senderKeys.entrySet()
+                .stream()
+                .collect(Collectors.groupingBy(entry -> entry.getKey()
+                        .groupId(), Collectors.summingInt(entry -> entry.getValue()
+                        .messageKeysCount())));
     }
 
     /**
@@ -248,11 +265,15 @@ public final class Keys
      * @return a non-null pre key
      */
     public Optional<SignalPreKeyPair> findPreKeyById(Integer id) {
-        return id == null ?
-                Optional.empty() :
-                preKeys.stream()
-                        .filter(preKey -> preKey.id() == id)
-                        .findFirst();
+        if (id == null) {
+            return Optional.empty();
+        }
+
+        if (preKeysIndex.size() != preKeys.size()) {
+            preKeys.forEach(preKey -> preKeysIndex.putIfAbsent(preKey.id(), preKey));
+        }
+
+        return Optional.ofNullable(preKeysIndex.get(id));
     }
 
     /**
@@ -345,11 +366,40 @@ public final class Keys
      * @return this
      */
     public Keys addPreKey(SignalPreKeyPair preKey) {
-        preKeys.add(preKey);
+        return addPreKeys(List.of(preKey));
+    }
+
+    /**
+     * Adds the provided pre keys to the pre keys and serializes them only once
+     *
+     * @param preKeys the keys to add
+     * @return this
+     */
+    public Keys addPreKeys(@NonNull Collection<SignalPreKeyPair> preKeys) {
+        preKeys.forEach(preKey -> {
+            this.preKeys.add(preKey);
+            preKeysIndex.put(preKey.id(), preKey);
+        });
         serialize(true);
         return this;
     }
 
+    /**
+     * Generates, in parallel, a batch of pre keys whose ids follow the last available pre key and adds them to the pre keys
+     *
+     * @param size the number of pre keys to generate
+     * @return a non-null list of pre keys
+     */
+    public synchronized List<SignalPreKeyPair> generatePreKeys(int size) {
+        var startId = lastPreKeyId() + 1;
+        var result = IntStream.range(startId, startId + size)
+                .parallel()
+                .mapToObj(SignalPreKeyPair::random)
+                .toList();
+        addPreKeys(result);
+        return result;
+    }
+
     /**
      * Returns write counter
      *
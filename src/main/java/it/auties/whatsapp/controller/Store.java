@@ -12,6 +12,7 @@ import it.auties.whatsapp.model.info.ContextInfo;
 import it.auties.whatsapp.model.info.MessageInfo;
 import it.auties.whatsapp.model.media.MediaConnection;
 import it.auties.whatsapp.model.message.model.ContextualMessage;
+import it.auties.whatsapp.model.message.model.MediaMessage;
 import it.auties.whatsapp.model.message.model.MessageKey;
 import it.auties.whatsapp.model.privacy.PrivacySettingType;
 import it.auties.whatsapp.model.privacy.PrivacySettingValue;
@@ -21,18 +22,22 @@ import it.auties.whatsapp.model.request.ReplyHandler;
 import it.auties.whatsapp.model.request.Request;
 import it.auties.whatsapp.serialization.ControllerProviderLoader;
 import it.auties.whatsapp.util.Clock;
+import it.auties.whatsapp.util.MediaTransferService;
 import lombok.*;
 import lombok.Builder.Default;
 import lombok.experimental.Accessors;
 import lombok.extern.jackson.Jacksonized;
 
 import java.net.URI;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -52,6 +57,18 @@ public final class Store
     @JsonIgnore
     private static ConcurrentHashMap<Integer, Store> stores = new ConcurrentHashMap<>();
 
+    /**
+     * The amount of time after which a status is no longer available
+     */
+    @JsonIgnore
+    private static final Duration STATUS_EXPIRATION = Duration.ofHours(24);
+
+    /**
+     * The minimum amount of time between two sweeps of the expired status
+     */
+    @JsonIgnore
+    private static final Duration STATUS_SWEEP_INTERVAL = Duration.ofMinutes(1);
+
     /**
      * The media connection latch associated with this store
      */
@@ -60,6 +77,15 @@ public final class Store
     private final CountDownLatch mediaConnectionLatch = new CountDownLatch(1);
 
 
+    /**
+     * The service used by the session linked to this store to transfer medias.
+     * Media messages attributed by this store download their content through this service.
+     */
+    @JsonIgnore
+    @Getter
+    @Setter
+    private MediaTransferService mediaTransfers;
+
     /**
      * The session id of this store
      */
@@ -125,12 +151,30 @@ public final class Store
     private ConcurrentHashMap<ContactJid, Contact> contacts = new ConcurrentHashMap<>();
 
     /**
-     * The non-null list of status messages
+     * The non-null list of status messages, ordered by the time they were received for each sender
      */
     @NonNull
     @Default
     private ConcurrentHashMap<ContactJid, ConcurrentLinkedDeque<MessageInfo>> status = new ConcurrentHashMap<>();
 
+    /**
+     * The status in {@link Store#status} indexed by their id
+     */
+    @JsonIgnore
+    private final Map<String, MessageInfo> statusIndex = new ConcurrentHashMap<>();
+
+    /**
+     * Whether {@link Store#statusIndex} contains all the status in this store
+     */
+    @JsonIgnore
+    private final AtomicBoolean statusIndexed = new AtomicBoolean();
+
+    /**
+     * The time, in seconds, of the last sweep of the expired status
+     */
+    @JsonIgnore
+    private final AtomicLong lastStatusSweep = new AtomicLong();
+
     /**
      * The non-null map of privacy settings
      */
@@ -139,6 +183,24 @@ public final class Store
     @Getter
     private ConcurrentHashMap<PrivacySettingType, PrivacySettingValue> privacySettings = new ConcurrentHashMap<>();
 
+    /**
+     * The non-null map of the participants of the groups that messages were sent to.
+     * This map is kept up to date by the group notifications sent by Whatsapp.
+     */
+    @NonNull
+    @Default
+    @Getter
+    private ConcurrentHashMap<ContactJid, List<ContactJid>> groupsParticipants = new ConcurrentHashMap<>();
+
+    /**
+     * The non-null map of the devices of the users that messages were sent to, indexed by user.
+     * This map is kept up to date by the device notifications sent by Whatsapp.
+     */
+    @NonNull
+    @Default
+    @Getter
+    private ConcurrentHashMap<String, List<ContactJid>> devices = new ConcurrentHashMap<>();
+
     /**
      * Whether this store has already received the snapshot from
      * Whatsapp Web containing chats and contacts
@@ -374,15 +436,9 @@ public final class Store
         var chat = provider instanceof Chat value ?
                 value :
                 findChatByJid(provider.toJid()).orElse(null);
-        if (chat == null || id == null) {
-            return Optional.empty();
-        }
-
-        return chat.messages()
-                .parallelStream()
-                .filter(message -> Objects.equals(message.key()
-                                                          .id(), id))
-                .findAny();
+        return chat == null ?
+                Optional.empty() :
+                chat.findMessageById(id);
     }
 
     /**
@@ -414,17 +470,40 @@ public final class Store
     }
 
     /**
-     * Queries the first status whose id matches the one provided
+     * Queries the first status whose id matches the one provided.
+     * This method runs in constant time once the index of this store has been built.
      *
      * @param id the id of the status
      * @return a non-null optional
      */
     public Optional<MessageInfo> findStatusById(String id) {
-        return id == null ?
-                Optional.empty() :
-                status().stream()
-                        .filter(status -> Objects.equals(status.id(), id))
-                        .findFirst();
+        if (id == null) {
+            return Optional.empty();
+        }
+
+        if (!statusIndexed.get()) {
+            buildStatusIndex();
+        }
+
+        sweepExpiredStatus();
+        var expiration = findStatusExpiration();
+        return Optional.ofNullable(statusIndex.get(id))
+                .filter(info -> info.timestamp() > expiration);
+    }
+
+    private void buildStatusIndex() {
+        synchronized (statusIndex) {
+            if (statusIndexed.get()) {
+                return;
+            }
+
+            status.values()
+                    .stream()
+                    .flatMap(Collection::stream)
+                    .filter(info -> info.id() != null)
+                    .forEach(info -> statusIndex.putIfAbsent(info.id(), info));
+            statusIndexed.set(true);
+        }
     }
 
     /**
@@ -434,7 +513,8 @@ public final class Store
      * @return a non-null immutable list
      */
     public Collection<MessageInfo> findStatusBySender(ContactJidProvider jid) {
-        return Optional.ofNullable(status.get(jid.toJid()))
+        sweepExpiredStatus();
+        return Optional.ofNullable(status.computeIfPresent(jid.toJid(), this::removeExpiredStatus))
                 .map(Collections::unmodifiableCollection)
                 .orElseGet(Set::of);
     }
@@ -587,41 +667,124 @@ public final class Store
      * @return the same incoming message
      */
     public MessageInfo attribute(@NonNull MessageInfo info) {
-        var chat = findChatByJid(info.chatJid()).orElseGet(() -> addChat(Chat.ofJid(info.chatJid())));
+        return attribute(info, this::findOrAddChat, this::findOrAddContact);
+    }
+
+    private MessageInfo attribute(MessageInfo info, Function<ContactJid, Chat> chats,
+            Function<ContactJid, Contact> contacts) {
         info.key()
-                .chat(chat);
+                .chat(chats.apply(info.chatJid()));
         info.key()
                 .senderJid()
-                .ifPresent(senderJid -> attributeSender(info, senderJid));
+                .ifPresent(senderJid -> attributeSender(info, contacts.apply(senderJid)));
         info.message()
                 .contentWithContext()
                 .map(ContextualMessage::contextInfo)
-                .ifPresent(this::attributeContext);
+                .ifPresent(contextInfo -> attributeContext(contextInfo, chats, contacts));
+        if (mediaTransfers != null && info.message()
+                .content() instanceof MediaMessage mediaMessage) {
+            mediaMessage.transfers(mediaTransfers);
+        }
+
         return info;
     }
 
-    private MessageKey attributeSender(MessageInfo info, ContactJid senderJid) {
-        var contact = findContactByJid(senderJid).orElseGet(() -> addContact(Contact.ofJid(senderJid)));
+    private MessageKey attributeSender(MessageInfo info, Contact contact) {
         return info.sender(contact)
                 .key()
                 .sender(contact);
     }
 
-    private void attributeContext(ContextInfo contextInfo) {
+    private void attributeContext(ContextInfo contextInfo, Function<ContactJid, Chat> chats,
+            Function<ContactJid, Contact> contacts) {
         contextInfo.quotedMessageSenderJid()
-                .ifPresent(senderJid -> attributeContextSender(contextInfo, senderJid));
+                .map(contacts)
+                .ifPresent(contextInfo::quotedMessageSender);
         contextInfo.quotedMessageChatJid()
-                .ifPresent(chatJid -> attributeContextChat(contextInfo, chatJid));
+                .map(chats)
+                .ifPresent(contextInfo::quotedMessageChat);
     }
 
-    private void attributeContextChat(ContextInfo contextInfo, ContactJid chatJid) {
-        var chat = findChatByJid(chatJid).orElseGet(() -> addChat(Chat.ofJid(chatJid)));
-        contextInfo.quotedMessageChat(chat);
+    private Chat findOrAddChat(ContactJid jid) {
+        return findChatByJid(jid).orElseGet(() -> addChat(Chat.ofJid(jid)));
     }
 
-    private void attributeContextSender(ContextInfo contextInfo, ContactJid senderJid) {
-        var contact = findContactByJid(senderJid).orElseGet(() -> addContact(Contact.ofJid(senderJid)));
-        contextInfo.quotedMessageSender(contact);
+    private Contact findOrAddContact(ContactJid jid) {
+        return findContactByJid(jid).orElseGet(() -> addContact(Contact.ofJid(jid)));
+    }
+
+    /**
+     * Merges a batch of chats, usually received from a history sync, into the chats in memory.
+     * The chats and contacts in memory are indexed once for the whole batch, then each chat is merged on the common fork
+     * join pool: messages are attributed using the indexes and deduplicated by id.
+     * No listener is invoked, the caller is expected to notify the listeners once the batch is merged.
+     *
+     * @param carriers the non-null chats to merge
+     * @return a non-null list containing, for each distinct jid in the input, the chat in memory
+     */
+    public List<Chat> mergeChats(@NonNull Collection<Chat> carriers) {
+        if (carriers.isEmpty()) {
+            return List.of();
+        }
+
+        var chatsIndex = createIndex(chats(), Chat::jid);
+        var contactsIndex = createIndex(contacts(), Contact::jid);
+        Function<ContactJid, Chat> chatResolver = jid -> chatsIndex.computeIfAbsent(indexKey(jid),
+                                                                                     ignored -> addChatDirect(Chat.ofJid(jid)));
+        Function<ContactJid, Contact> contactResolver = jid -> contactsIndex.computeIfAbsent(indexKey(jid),
+                                                                                             ignored -> addContact(Contact.ofJid(jid)));
+        var groups = carriers.stream()
+                .collect(Collectors.groupingBy(carrier -> indexKey(carrier.jid()), LinkedHashMap::new,
+                                               Collectors.toList()));
+        var targets = groups.values()
+                .stream()
+                .map(group -> findMergeTarget(group.get(0), chatsIndex, contactResolver))
+                .toList();
+        return targets.parallelStream()
+                .map(target -> mergeChat(target, groups.get(indexKey(target.jid())), chatResolver, contactResolver))
+                .toList();
+    }
+
+    private Chat findMergeTarget(Chat carrier, Map<String, Chat> chatsIndex,
+            Function<ContactJid, Contact> contactResolver) {
+        var existing = chatsIndex.get(indexKey(carrier.jid()));
+        if (existing != null) {
+            return existing;
+        }
+
+        if (carrier.hasName() && carrier.jid()
+                .hasServer(ContactJid.Server.WHATSAPP)) {
+            contactResolver.apply(carrier.jid())
+                    .fullName(carrier.name());
+        }
+
+        chatsIndex.put(indexKey(carrier.jid()), carrier);
+        return addChatDirect(carrier);
+    }
+
+    private Chat mergeChat(Chat target, List<Chat> carriers, Function<ContactJid, Chat> chatResolver,
+            Function<ContactJid, Contact> contactResolver) {
+        for (var carrier : carriers) {
+            var messages = carrier.messages()
+                    .stream()
+                    .map(message -> attribute(message, chatResolver, contactResolver))
+                    .toList();
+            if (carrier != target) {
+                target.addMessages(messages);
+            }
+        }
+
+        return target;
+    }
+
+    private <T> Map<String, T> createIndex(Collection<T> values, Function<T, ContactJid> jid) {
+        var index = new ConcurrentHashMap<String, T>(values.size());
+        values.forEach(value -> index.putIfAbsent(indexKey(jid.apply(value)), value));
+        return index;
+    }
+
+    private String indexKey(ContactJid jid) {
+        return String.valueOf(jid.user());
     }
 
     /**
@@ -654,7 +817,14 @@ public final class Store
     public void clear() {
         chats.clear();
         contacts.clear();
-        status.clear();
+        synchronized (statusIndex) {
+            status.clear();
+            statusIndex.clear();
+            statusIndexed.set(false);
+        }
+
+        groupsParticipants.clear();
+        devices.clear();
         listeners.clear();
         requests.forEach(request -> request.complete(null, false));
         requests.clear();
@@ -733,32 +903,91 @@ public final class Store
     }
 
     /**
-     * Returns all the status
+     * Returns all the status that haven't expired yet.
+     * The returned collection is a view: it reflects the changes made to this store and doesn't copy its contents.
+     * As a consequence, its size isn't cached: computing it iterates over all the status, like iterating the collection.
      *
-     * @return an immutable collection
+     * @return an unmodifiable collection
      */
     public Collection<MessageInfo> status() {
+        sweepExpiredStatus();
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<MessageInfo> iterator() {
+                return liveStatus().iterator();
+            }
+
+            @Override
+            public int size() {
+                return (int) liveStatus().count();
+            }
+        };
+    }
+
+    private Stream<MessageInfo> liveStatus() {
+        var expiration = findStatusExpiration();
         return status.values()
                 .stream()
                 .flatMap(Collection::stream)
-                .collect(Collectors.toUnmodifiableSet());
+                .filter(info -> info.timestamp() > expiration);
     }
 
     /**
-     * Adds a status to this store
+     * Adds a status to this store.
+     * The status that were sent by the same contact and that expired are removed.
      *
      * @param info the non-null status to add
      * @return the same instance
      */
     public Store addStatus(@NonNull MessageInfo info) {
         attribute(info);
-        var wrapper = Objects.requireNonNullElseGet(status.get(info.senderJid()),
-                                                    ConcurrentLinkedDeque<MessageInfo>::new);
-        wrapper.add(info);
-        status.put(info.senderJid(), wrapper);
+        status.compute(info.senderJid(), (sender, wrapper) -> {
+            var result = Objects.requireNonNullElseGet(wrapper, ConcurrentLinkedDeque<MessageInfo>::new);
+            result.add(info);
+            if (info.id() != null) {
+                statusIndex.putIfAbsent(info.id(), info);
+            }
+
+            return removeExpiredStatus(sender, result);
+        });
+        sweepExpiredStatus();
         return this;
     }
 
+    // Status are stored in the order they were received, which isn't necessarily the order of their timestamps
+    private ConcurrentLinkedDeque<MessageInfo> removeExpiredStatus(ContactJid sender,
+            ConcurrentLinkedDeque<MessageInfo> wrapper) {
+        var expiration = findStatusExpiration();
+        wrapper.removeIf(info -> info.timestamp() <= expiration && unindexStatus(info));
+        return wrapper.isEmpty() ?
+                null :
+                wrapper;
+    }
+
+    // Senders that are never looked up again would keep their expired status forever, so all of them are swept periodically
+    private void sweepExpiredStatus() {
+        var now = Clock.now();
+        var last = lastStatusSweep.get();
+        if (now - last < STATUS_SWEEP_INTERVAL.toSeconds() || !lastStatusSweep.compareAndSet(last, now)) {
+            return;
+        }
+
+        status.keySet()
+                .forEach(sender -> status.computeIfPresent(sender, this::removeExpiredStatus));
+    }
+
+    private boolean unindexStatus(MessageInfo info) {
+        if (info.id() != null) {
+            statusIndex.remove(info.id(), info);
+        }
+
+        return true;
+    }
+
+    private long findStatusExpiration() {
+        return Clock.now() - STATUS_EXPIRATION.toSeconds();
+    }
+
     /**
      * Adds a request to this store
      *
@@ -26,10 +26,7 @@ public class AesCbc {
 
     @SneakyThrows
     public byte[] encrypt(byte[] iv, byte[] plaintext, byte[] key) {
-        var cipher = Cipher.getInstance(AES_CBC);
-        var keySpec = new SecretKeySpec(key, AES);
-        cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
-        return cipher.doFinal(plaintext);
+        return createCipher(Cipher.ENCRYPT_MODE, iv, key).doFinal(plaintext);
     }
 
     public byte[] decrypt(byte[] encrypted, byte[] key) {
@@ -45,9 +42,14 @@ public class AesCbc {
     public byte[] decrypt(byte[] iv, byte[] encrypted, byte[] key) {
         Validate.isTrue(iv.length == AES_BLOCK_SIZE, "Invalid iv size: expected %s, got %s", AES_BLOCK_SIZE, iv.length);
         Validate.isTrue(encrypted.length % AES_BLOCK_SIZE == 0, "Invalid encrypted size");
+        return createCipher(Cipher.DECRYPT_MODE, iv, key).doFinal(encrypted);
+    }
+
+    @SneakyThrows
+    public Cipher createCipher(int mode, byte[] iv, byte[] key) {
         var cipher = Cipher.getInstance(AES_CBC);
         var keySpec = new SecretKeySpec(key, AES);
-        cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv));
-        return cipher.doFinal(encrypted);
+        cipher.init(mode, keySpec, new IvParameterSpec(iv));
+        return cipher;
     }
 }
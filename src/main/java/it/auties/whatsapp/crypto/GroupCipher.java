@@ -7,6 +7,7 @@ import it.auties.whatsapp.model.signal.sender.SenderKeyName;
 import it.auties.whatsapp.model.signal.sender.SenderKeyState;
 import it.auties.whatsapp.model.signal.sender.SenderMessageKey;
 import it.auties.whatsapp.util.SignalSpecification;
+import it.auties.whatsapp.util.Validate;
 import lombok.NonNull;
 
 import java.util.NoSuchElementException;
@@ -18,19 +19,24 @@ public record GroupCipher(@NonNull SenderKeyName name, @NonNull Keys keys)
     public Node encrypt(byte[] data) {
         var currentState = keys.findSenderKeyByName(name)
                 .findState();
-        var messageKey = currentState.chainKey()
-                .toMessageKey();
-
+        var messageKey = nextMessageKey(currentState);
         var ciphertext = AesCbc.encrypt(messageKey.iv(), data, messageKey.cipherKey());
         var senderKeyMessage = new SenderKeyMessage(currentState.id(), messageKey.iteration(), ciphertext,
                                                     currentState.signingKey()
                                                             .privateKey());
-        var next = currentState.chainKey()
-                .next();
-        currentState.chainKey(next);
         return Node.of("enc", of("v", "2", "type", "skmsg"), senderKeyMessage.serialized());
     }
 
+    private SenderMessageKey nextMessageKey(SenderKeyState currentState) {
+        synchronized (currentState) {
+            var messageKey = currentState.chainKey()
+                    .toMessageKey();
+            currentState.chainKey(currentState.chainKey()
+                                          .next());
+            return messageKey;
+        }
+    }
+
     public byte[] decrypt(byte[] data) {
         var record = keys.findSenderKeyByName(name);
         var senderKeyMessage = SenderKeyMessage.ofSerialized(data);
@@ -48,22 +54,22 @@ public record GroupCipher(@NonNull SenderKeyName name, @NonNull Keys keys)
     }
 
     private SenderMessageKey getSenderKey(SenderKeyState senderKeyState, int iteration) {
-        if (senderKeyState.chainKey()
-                .iteration() > iteration) {
-            return senderKeyState.findSenderMessageKey(iteration)
-                    .orElseThrow(() -> new NoSuchElementException(
-                            "Received message with old counter: got %s, expected > %s".formatted(iteration,
-                                                                                                 senderKeyState.chainKey()
-                                                                                                         .iteration())));
-        }
+        synchronized (senderKeyState) {
+            var chainKey = senderKeyState.chainKey();
+            if (chainKey.iteration() > iteration) {
+                return senderKeyState.removeSenderMessageKey(iteration)
+                        .orElseThrow(() -> new NoSuchElementException(
+                                "Received message with old counter: got %s, expected > %s".formatted(iteration,
+                                                                                                     chainKey.iteration())));
+            }
 
-        var lastChainKey = senderKeyState.chainKey();
-        while (lastChainKey.iteration() < iteration) {
-            senderKeyState.addSenderMessageKey(lastChainKey.toMessageKey());
-            lastChainKey = lastChainKey.next();
+            Validate.isTrue(iteration - chainKey.iteration() <= MAX_MESSAGES,
+                            "Message overflow: expected <= %s, got %s", MAX_MESSAGES,
+                            iteration - chainKey.iteration());
+            var lastChainKey = chainKey.advance(iteration, iteration - SenderKeyState.MAX_MESSAGE_KEYS,
+                                                senderKeyState::addSenderMessageKey);
+            senderKeyState.chainKey(lastChainKey.next());
+            return lastChainKey.toMessageKey();
         }
-
-        senderKeyState.chainKey(lastChainKey.next());
-        return lastChainKey.toMessageKey();
     }
 }
@@ -20,10 +20,18 @@ public class Hmac {
         return calculate(HMAC_SHA_512, plain, key);
     }
 
-    @SneakyThrows
+    public Mac createSha256(byte @NonNull [] key) {
+        return create(HMAC_SHA_256, key);
+    }
+
     private byte[] calculate(String algorithm, byte[] plain, byte[] key) {
+        return create(algorithm, key).doFinal(plain);
+    }
+
+    @SneakyThrows
+    private Mac create(String algorithm, byte[] key) {
         var localMac = Mac.getInstance(algorithm);
         localMac.init(new SecretKeySpec(key, algorithm));
-        return localMac.doFinal(plain);
+        return localMac;
     }
 }
@@ -61,17 +61,19 @@ public class LTHash {
     }
 
     private byte[] perform(byte[] input, boolean sum) {
-        for (var item : sum ?
+        var expansions = (sum ?
                 add :
-                subtract) {
-            input = perform(input, item, sum);
+                subtract).parallelStream()
+                .map(item -> Hkdf.extractAndExpand(item, salt, EXPAND_SIZE))
+                .toList();
+        for (var expanded : expansions) {
+            input = perform(input, expanded, sum);
         }
 
         return input;
     }
 
-    private byte[] perform(byte[] input, byte[] buffer, boolean sum) {
-        var expanded = Hkdf.extractAndExpand(buffer, salt, EXPAND_SIZE);
+    private byte[] perform(byte[] input, byte[] expanded, boolean sum) {
         var eRead = ByteBuffer.wrap(input)
                 .order(ByteOrder.LITTLE_ENDIAN);
         var tRead = ByteBuffer.wrap(expanded)
@@ -15,10 +15,14 @@ public class Sha256 {
         return calculate(data.getBytes(StandardCharsets.UTF_8));
     }
 
-    @SneakyThrows
     public byte[] calculate(byte @NonNull [] data) {
-        var digest = MessageDigest.getInstance(SHA_256);
+        var digest = createDigest();
         digest.update(data);
         return digest.digest();
     }
+
+    @SneakyThrows
+    public MessageDigest createDigest() {
+        return MessageDigest.getInstance(SHA_256);
+    }
 }
@@ -0,0 +1,119 @@
+package it.auties.whatsapp.listener;
+
+import it.auties.whatsapp.util.ListenerScanner;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An annotation processor that writes the binary name of every class annotated with {@link RegisterListener} to an index.
+ * The index is read by {@link it.auties.whatsapp.api.Whatsapp} at runtime, so that listeners can be registered without
+ * scanning the classpath.
+ * This processor is registered as a service, so it runs automatically whenever a project that depends on this library is
+ * compiled.
+ */
+@SupportedAnnotationTypes("it.auties.whatsapp.listener.RegisterListener")
+public class RegisterListenerProcessor
+        extends AbstractProcessor {
+    private final Set<String> listeners = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment environment) {
+        if (environment.processingOver()) {
+            writeIndex();
+            return false;
+        }
+
+        environment.getElementsAnnotatedWith(RegisterListener.class)
+                .forEach(element -> {
+                    if (element.getKind() != ElementKind.CLASS || !isListener((TypeElement) element)) {
+                        processingEnv.getMessager()
+                                .printMessage(Diagnostic.Kind.ERROR,
+                                              "Cannot register listener: only classes that implement %s can be annotated with @RegisterListener".formatted(
+                                                      Listener.class.getName()), element);
+                        return;
+                    }
+
+                    listeners.add(processingEnv.getElementUtils()
+                                          .getBinaryName((TypeElement) element)
+                                          .toString());
+                });
+        return false;
+    }
+
+    private boolean isListener(TypeElement element) {
+        var listener = processingEnv.getElementUtils()
+                .getTypeElement(Listener.class.getName());
+        return listener != null && processingEnv.getTypeUtils()
+                .isAssignable(element.asType(), listener.asType());
+    }
+
+    private void writeIndex() {
+        readPreviousIndex();
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        try {
+            var index = processingEnv.getFiler()
+                    .createResource(StandardLocation.CLASS_OUTPUT, "", ListenerScanner.LISTENERS_INDEX);
+            try (var writer = index.openWriter()) {
+                for (var listener : listeners) {
+                    writer.write(listener);
+                    writer.write(System.lineSeparator());
+                }
+            }
+        } catch (IOException exception) {
+            processingEnv.getMessager()
+                    .printMessage(Diagnostic.Kind.ERROR,
+                                  "Cannot write listeners index: %s".formatted(exception.getMessage()));
+        }
+    }
+
+    // Incremental builds only compile the changed sources, so the listeners that are still valid are kept from the old index
+    private void readPreviousIndex() {
+        try {
+            var index = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", ListenerScanner.LISTENERS_INDEX);
+            readIndex(index).stream()
+                    .filter(this::isRegisteredListener)
+                    .forEach(listeners::add);
+        } catch (IOException | UncheckedIOException | IllegalArgumentException exception) {
+            // There is no index from a previous build
+        }
+    }
+
+    private Set<String> readIndex(FileObject index) throws IOException {
+        try (var reader = new BufferedReader(index.openReader(true))) {
+            var results = new TreeSet<String>();
+            reader.lines()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .forEach(results::add);
+            return results;
+        }
+    }
+
+    private boolean isRegisteredListener(String name) {
+        var element = processingEnv.getElementUtils()
+                .getTypeElement(name.replace('$', '.'));
+        return element != null && element.getAnnotation(RegisterListener.class) != null;
+    }
+}
@@ -1,5 +1,6 @@
 package it.auties.whatsapp.model.chat;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
 import it.auties.protobuf.base.ProtobufMessage;
 import it.auties.protobuf.base.ProtobufName;
@@ -24,6 +25,8 @@ import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.function.Predicate;
 
 import static it.auties.protobuf.base.ProtobufType.*;
@@ -44,6 +47,9 @@ import static java.util.Objects.requireNonNullElseGet;
 @ProtobufName("Conversation")
 public final class Chat
         implements ProtobufMessage, ContactJidProvider {
+    private static final AtomicIntegerFieldUpdater<Chat> UNREAD_MESSAGES_COUNT = AtomicIntegerFieldUpdater.newUpdater(
+            Chat.class, "unreadMessagesCount");
+
     /**
      * The non-null unique jid used to identify this chat
      */
@@ -80,12 +86,30 @@ public final class Chat
     @JsonManagedReference
     private ConcurrentLinkedDeque<MessageInfo> messages = new ConcurrentLinkedDeque<>();
 
+    /**
+     * An index of the messages in this chat by id, built lazily the first time a message is queried by id
+     */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final Map<String, MessageInfo> messagesIndex = new ConcurrentHashMap<>();
+
+    /**
+     * Whether {@link Chat#messagesIndex} contains all the messages in this chat
+     */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final AtomicBoolean messagesIndexed = new AtomicBoolean();
+
     /**
      * The number of unread messages in this chat.
      * If this field is negative, this chat is marked as unread.
      */
     @ProtobufProperty(index = 6, type = UINT32)
-    private int unreadMessagesCount;
+    private volatile int unreadMessagesCount;
 
     /**
      * Whether this chat is read only
@@ -429,8 +453,19 @@ public final class Chat
             return List.of();
         }
 
+        var count = unreadMessagesCount;
         var list = new ArrayList<>(messages);
-        return list.subList(list.size() - unreadMessagesCount(), list.size());
+        return list.subList(Math.max(0, list.size() - count), list.size());
+    }
+
+    /**
+     * Atomically increments the number of unread messages in this chat.
+     * If this chat was marked as unread, the count starts again from zero.
+     *
+     * @return the updated number of unread messages
+     */
+    public int incrementUnreadMessagesCount() {
+        return UNREAD_MESSAGES_COUNT.updateAndGet(this, count -> Math.max(count, 0) + 1);
     }
 
     /**
@@ -669,7 +704,34 @@ public final class Chat
      * @return whether the message was added
      */
     public boolean addMessage(@NonNull MessageInfo info) {
-        return !messages.contains(info) && messages.add(info);
+        if (messages.contains(info) || !messages.add(info)) {
+            return false;
+        }
+
+        indexMessage(info);
+        return true;
+    }
+
+    /**
+     * Adds the messages that are not already part of this chat, comparing them by id.
+     * Unlike calling {@link Chat#addMessage(MessageInfo)} for each message, this method scans the chat only once.
+     *
+     * @param infos the messages to add to the chat
+     * @return the number of messages that were added
+     */
+    public int addMessages(@NonNull Collection<MessageInfo> infos) {
+        var ids = new HashSet<String>(messages.size() + infos.size());
+        messages.forEach(message -> ids.add(message.id()));
+        var added = 0;
+        for (var info : infos) {
+            if (ids.add(info.id())) {
+                messages.add(info);
+                indexMessage(info);
+                added++;
+            }
+        }
+
+        return added;
     }
 
     /**
@@ -681,6 +743,60 @@ public final class Chat
         return Collections.unmodifiableCollection(messages);
     }
 
+    /**
+     * Sets the messages of this chat
+     *
+     * @param messages the new messages
+     * @return the same instance
+     */
+    public Chat messages(@NonNull ConcurrentLinkedDeque<MessageInfo> messages) {
+        synchronized (messagesIndex) {
+            this.messages = messages;
+            messagesIndex.clear();
+            messagesIndexed.set(false);
+        }
+
+        return this;
+    }
+
+    /**
+     * Queries the message in this chat whose id matches the one provided.
+     * Unlike scanning {@link Chat#messages()}, this method runs in constant time once the index of this chat has been built.
+     *
+     * @param id the id of the message
+     * @return a non-null optional
+     */
+    public Optional<MessageInfo> findMessageById(String id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+
+        if (!messagesIndexed.get()) {
+            buildMessagesIndex();
+        }
+
+        return Optional.ofNullable(messagesIndex.get(id));
+    }
+
+    private void buildMessagesIndex() {
+        synchronized (messagesIndex) {
+            if (messagesIndexed.get()) {
+                return;
+            }
+
+            messages.stream()
+                    .filter(message -> message.id() != null)
+                    .forEach(message -> messagesIndex.putIfAbsent(message.id(), message));
+            messagesIndexed.set(true);
+        }
+    }
+
+    private void indexMessage(MessageInfo info) {
+        if (info.id() != null) {
+            messagesIndex.put(info.id(), info);
+        }
+    }
+
     /**
      * Remove a message from the chat
      *
@@ -688,7 +804,15 @@ public final class Chat
      * @return whether the message was removed
      */
     public boolean removeMessage(@NonNull MessageInfo info) {
-        return messages.remove(info);
+        if (!messages.remove(info)) {
+            return false;
+        }
+
+        if (info.id() != null) {
+            messagesIndex.remove(info.id(), info);
+        }
+
+        return true;
     }
 
     /**
@@ -698,14 +822,24 @@ public final class Chat
      * @return whether the message was removed
      */
     public boolean removeMessage(@NonNull Predicate<? super MessageInfo> predicate) {
-        return messages.removeIf(predicate);
+        if (!messages.removeIf(predicate)) {
+            return false;
+        }
+
+        messagesIndex.values()
+                .removeIf(predicate);
+        return true;
     }
 
     /**
      * Removes all messages from the chat
      */
     public void removeMessages() {
-        messages.clear();
+        synchronized (messagesIndex) {
+            messages.clear();
+            messagesIndex.clear();
+            messagesIndexed.set(false);
+        }
     }
 
     /**
@@ -2,6 +2,8 @@ package it.auties.whatsapp.model.contact;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonValue;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import it.auties.protobuf.base.ProtobufConverter;
 import it.auties.protobuf.base.ProtobufMessage;
 import it.auties.protobuf.serializer.exception.ProtobufSerializationException;
@@ -9,8 +11,8 @@ import it.auties.whatsapp.model.signal.session.SessionAddress;
 import lombok.*;
 import lombok.experimental.Accessors;
 
-import java.util.Arrays;
 import java.util.Objects;
+import java.util.function.Function;
 
 /**
  * A model class that represents a jid.
@@ -21,6 +23,28 @@ import java.util.Objects;
 @With
 public record ContactJid(String user, @NonNull Server server, int device, int agent)
         implements ProtobufMessage, ContactJidProvider {
+    /**
+     * The maximum number of jids kept by the caches used to parse and intern jids
+     */
+    private static final int CACHE_SIZE = 50_000;
+
+    /**
+     * A cache of parsed jids keyed by their raw value
+     */
+    private static final Cache<String, ContactJid> PARSED_JIDS = createCache();
+
+    /**
+     * A cache of canonical jids, used to share the same instance between jids that are equal
+     */
+    private static final Cache<ContactJid, ContactJid> INTERNED_JIDS = createCache();
+
+    private static <K> Cache<K, ContactJid> createCache() {
+        return Caffeine.newBuilder()
+                .maximumSize(CACHE_SIZE)
+                .executor(Runnable::run)
+                .build();
+    }
+
     /**
      * Constructs a new ContactId for a user from a jid
      *
@@ -29,7 +53,7 @@ public record ContactJid(String user, @NonNull Server server, int device, int ag
      */
     @JsonCreator
     public static ContactJid of(@NonNull String jid) {
-        return of(jid, Server.of(jid));
+        return PARSED_JIDS.get(jid, key -> of(key, Server.of(key)));
     }
 
     /**
@@ -42,29 +66,27 @@ public record ContactJid(String user, @NonNull Server server, int device, int ag
     public static ContactJid of(String jid, @NonNull Server server) {
         var complexUser = withoutServer(jid);
         if (complexUser == null) {
-            return new ContactJid(null, server, 0, 0);
+            return intern(new ContactJid(null, server, 0, 0));
         }
 
-        if (complexUser.contains(":")) {
-            var simpleUser = complexUser.split(":", 2);
-            var user = simpleUser[0];
-            var device = Integer.parseUnsignedInt(simpleUser[1]);
-            if (user.contains("_")) {
-                var simpleUserAgent = user.split("_", 2);
-                var agent = tryParseAgent(simpleUserAgent[1]);
-                return new ContactJid(simpleUserAgent[0], server, device, agent);
-            }
-
-            return new ContactJid(user, server, device, 0);
+        var deviceSeparator = complexUser.indexOf(':');
+        var userEnd = deviceSeparator == -1 ?
+                complexUser.length() :
+                deviceSeparator;
+        var device = deviceSeparator == -1 ?
+                0 :
+                Integer.parseUnsignedInt(complexUser, deviceSeparator + 1, complexUser.length(), 10);
+        var agentSeparator = complexUser.indexOf('_');
+        if (agentSeparator == -1 || agentSeparator >= userEnd) {
+            return intern(new ContactJid(complexUser.substring(0, userEnd), server, device, 0));
         }
 
-        if (!complexUser.contains("_")) {
-            return new ContactJid(complexUser, server, 0, 0);
-        }
+        var agent = tryParseAgent(complexUser.substring(agentSeparator + 1, userEnd));
+        return intern(new ContactJid(complexUser.substring(0, agentSeparator), server, device, agent));
+    }
 
-        var simpleUserAgent = complexUser.split("_", 2);
-        var agent = tryParseAgent(simpleUserAgent[1]);
-        return new ContactJid(simpleUserAgent[0], server, 0, agent);
+    private static ContactJid intern(ContactJid jid) {
+        return INTERNED_JIDS.get(jid, Function.identity());
     }
 
     private static int tryParseAgent(String string) {
@@ -94,7 +116,7 @@ public record ContactJid(String user, @NonNull Server server, int device, int ag
      * @return a non-null contact jid
      */
     public static ContactJid ofCompanion(String jid, int device, int agent) {
-        return new ContactJid(withoutServer(jid), Server.WHATSAPP, device, agent);
+        return intern(new ContactJid(withoutServer(jid), Server.WHATSAPP, device, agent));
     }
 
     /**
@@ -105,7 +127,7 @@ public record ContactJid(String user, @NonNull Server server, int device, int ag
      * @return a non-null contact jid
      */
     public static ContactJid ofDevice(String jid, int device) {
-        return new ContactJid(withoutServer(jid), Server.WHATSAPP, device, 0);
+        return intern(new ContactJid(withoutServer(jid), Server.WHATSAPP, device, 0));
     }
 
     /**
@@ -119,11 +141,38 @@ public record ContactJid(String user, @NonNull Server server, int device, int ag
             return null;
         }
 
-        for (var server : Server.values()) {
-            jid = jid.replaceAll("@%s".formatted(server), "");
+        var separator = jid.indexOf('@');
+        if (separator == -1) {
+            return jid;
         }
 
-        return jid;
+        var result = new StringBuilder(jid.length());
+        var start = 0;
+        while (separator != -1) {
+            var server = findServerAt(jid, separator + 1);
+            if (server != null) {
+                result.append(jid, start, separator);
+                start = separator + 1 + server.address()
+                        .length();
+            }
+
+            separator = jid.indexOf('@', server == null ?
+                    separator + 1 :
+                    start);
+        }
+
+        return result.append(jid, start, jid.length())
+                .toString();
+    }
+
+    private static Server findServerAt(String jid, int offset) {
+        for (var server : Server.VALUES) {
+            if (jid.startsWith(server.address(), offset)) {
+                return server;
+            }
+        }
+
+        return null;
     }
 
     @ProtobufConverter
@@ -212,17 +261,26 @@ public record ContactJid(String user, @NonNull Server server, int device, int ag
     @JsonValue
     @Override
     public String toString() {
-        var user = Objects.requireNonNullElse(user(), "");
-        var agent = agent() != 0 ?
-                "_%s".formatted(agent()) :
-                "";
-        var device = device() != 0 ?
-                ":%s".formatted(device()) :
-                "";
-        var leading = "%s%s%s".formatted(user, agent, device);
-        return leading.isEmpty() ?
+        var result = new StringBuilder();
+        if (user() != null) {
+            result.append(user());
+        }
+
+        if (agent() != 0) {
+            result.append('_')
+                    .append(agent());
+        }
+
+        if (device() != 0) {
+            result.append(':')
+                    .append(device());
+        }
+
+        return result.isEmpty() ?
                 server().toString() :
-                "%s@%s".formatted(leading, server());
+                result.append('@')
+                        .append(server())
+                        .toString();
     }
 
     @Override
@@ -362,15 +420,24 @@ public record ContactJid(String user, @NonNull Server server, int device, int ag
          */
         LID("lid");
 
+        private static final Server[] VALUES = values();
+
         @Getter
         private final String address;
 
         @JsonCreator
         public static Server of(String address) {
-            return Arrays.stream(values())
-                    .filter(entry -> address != null && address.endsWith(entry.address()))
-                    .findFirst()
-                    .orElse(WHATSAPP);
+            if (address == null) {
+                return WHATSAPP;
+            }
+
+            for (var entry : VALUES) {
+                if (address.endsWith(entry.address())) {
+                    return entry;
+                }
+            }
+
+            return WHATSAPP;
         }
 
         public ContactJid toJid(){
@@ -33,6 +33,15 @@ public class DownloadResult {
         return new DownloadResult(media, null, Status.SUCCESS);
     }
 
+    /**
+     * Constructs a new successful download result whose media was written to a sink provided by the caller
+     *
+     * @return a non-null download result
+     */
+    public static DownloadResult success() {
+        return new DownloadResult(null, null, Status.SUCCESS);
+    }
+
     /**
      * Constructs a new download result from an erroneous download
      *
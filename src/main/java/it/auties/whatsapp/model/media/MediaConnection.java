@@ -1,13 +1,30 @@
 package it.auties.whatsapp.model.media;
 
 import it.auties.whatsapp.model.request.Node;
+import it.auties.whatsapp.util.MediaTransferService;
+import it.auties.whatsapp.util.Medias;
 import lombok.NonNull;
 
 import java.util.List;
 
+import static java.util.Objects.requireNonNullElseGet;
+
 public record MediaConnection(@NonNull String auth, int ttl, int maxBuckets, long timestamp,
-                              @NonNull List<@NonNull String> hosts) {
+                              @NonNull List<@NonNull String> hosts, MediaTransferService transfers) {
+    public MediaConnection {
+        transfers = requireNonNullElseGet(transfers, Medias::transferService);
+    }
+
+    public MediaConnection(@NonNull String auth, int ttl, int maxBuckets, long timestamp,
+            @NonNull List<@NonNull String> hosts) {
+        this(auth, ttl, maxBuckets, timestamp, hosts, null);
+    }
+
     public static MediaConnection of(Node node) {
+        return of(node, null);
+    }
+
+    public static MediaConnection of(Node node, MediaTransferService transfers) {
         var mediaConnection = node.findNode("media_conn")
                 .orElse(node);
         var auth = mediaConnection.attributes()
@@ -22,6 +39,6 @@ public record MediaConnection(@NonNull String auth, int ttl, int maxBuckets, lon
                 .map(Node::attributes)
                 .map(attributes -> attributes.getString("hostname"))
                 .toList();
-        return new MediaConnection(auth, ttl, maxBuckets, timestamp, hosts);
+        return new MediaConnection(auth, ttl, maxBuckets, timestamp, hosts, transfers);
     }
 }
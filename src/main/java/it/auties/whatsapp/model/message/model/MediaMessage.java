@@ -1,5 +1,6 @@
 package it.auties.whatsapp.model.message.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import it.auties.bytes.Bytes;
 import it.auties.whatsapp.model.info.MessageInfo;
 import it.auties.whatsapp.model.media.AttachmentProvider;
@@ -7,6 +8,7 @@ import it.auties.whatsapp.model.media.DownloadResult;
 import it.auties.whatsapp.model.message.payment.PaymentInvoiceMessage;
 import it.auties.whatsapp.model.message.standard.*;
 import it.auties.whatsapp.util.LocalFileSystem;
+import it.auties.whatsapp.util.MediaTransferService;
 import it.auties.whatsapp.util.Medias;
 import it.auties.whatsapp.util.Validate;
 import lombok.AllArgsConstructor;
@@ -16,11 +18,11 @@ import lombok.NonNull;
 import lombok.experimental.Accessors;
 import lombok.experimental.SuperBuilder;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.nio.file.Files;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Optional;
 
 /**
  * A model class that represents a message holding media inside
@@ -43,6 +45,13 @@ public abstract sealed class MediaMessage
      */
     private DownloadResult decodedMedia;
 
+    /**
+     * The service used to download the media, by default the one shared by all sessions
+     */
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private MediaTransferService transfers;
+
     @Override
     public MessageType type() {
         return mediaType().messageType();
@@ -62,7 +71,7 @@ public abstract sealed class MediaMessage
      */
     public DownloadResult decodedMedia() {
         if (decodedMedia == null || decodedMedia.status() != DownloadResult.Status.SUCCESS) {
-            this.decodedMedia = Medias.download(this);
+            this.decodedMedia = Medias.download(this, transfers());
         }
 
         return decodedMedia;
@@ -82,26 +91,63 @@ public abstract sealed class MediaMessage
 
     /**
      * Saves this media to the provided path.
+     * The media is decrypted while it's being downloaded and written to the path, so it's never held in memory nor cached by this object.
      * Throws an error if the media cannot be downloaded successfully.
      *
      * @param path the non-null path where the media should be written.
      * @return the non-null path where the file was downloaded
      */
     public Path save(@NonNull Path path) {
-        var result = decodedMedia();
+        var result = Medias.download(this, path, transfers());
         Validate.isTrue(result.status() == DownloadResult.Status.SUCCESS,
                         "Cannot save media: %s".formatted(result.status()));
-        try {
-            Files.createDirectories(path.getParent());
-            Files.write(path, result.media()
-                    .get(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException exception) {
-            throw new UncheckedIOException("Cannot write media to file", exception);
-        }
-
         return path;
     }
 
+    /**
+     * Downloads, decrypts and writes the media that this object wraps to the provided output stream.
+     * Unlike {@link MediaMessage#decodedMedia()}, the media is never held in memory nor cached by this object.
+     *
+     * @param output the non-null output stream where the media should be written
+     * @return a non-null result, whose media is always empty
+     */
+    public DownloadResult decodedMedia(@NonNull OutputStream output) {
+        return Medias.download(this, output, transfers());
+    }
+
+    /**
+     * Opens a channel that downloads and decrypts the media that this object wraps while it's being read.
+     * The integrity of the media is validated when the end of the channel is reached.
+     * Unlike {@link MediaMessage#decodedMedia()}, the media is never held in memory nor cached by this object.
+     *
+     * @return a non-null optional, empty if the media is no longer available on Whatsapp's servers
+     */
+    public Optional<ReadableByteChannel> decodedMediaChannel() {
+        return Medias.downloadChannel(this, transfers());
+    }
+
+    /**
+     * Returns the service used to download the media that this object wraps.
+     * Messages that belong to a session use the service of that session, so that its concurrency limit and host health
+     * are shared by all of its downloads.
+     *
+     * @return a non-null service
+     */
+    public MediaTransferService transfers() {
+        return Objects.requireNonNullElseGet(transfers, Medias::transferService);
+    }
+
+    /**
+     * Sets the service used to download the media that this object wraps
+     *
+     * @param transfers the service to use, null to use the one shared by all sessions
+     * @return the same instance
+     */
+    public MediaMessage transfers(MediaTransferService transfers) {
+        this.transfers = transfers;
+        return this;
+    }
+
     /**
      * Returns the media type of the media that this object wraps
      *
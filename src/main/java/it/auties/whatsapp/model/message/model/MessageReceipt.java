@@ -1,5 +1,6 @@
 package it.auties.whatsapp.model.message.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import it.auties.protobuf.base.ProtobufMessage;
 import it.auties.protobuf.base.ProtobufName;
 import it.auties.protobuf.base.ProtobufProperty;
@@ -11,9 +12,7 @@ import lombok.experimental.Accessors;
 import lombok.extern.jackson.Jacksonized;
 
 import java.time.ZonedDateTime;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 import static it.auties.protobuf.base.ProtobufType.INT64;
 import static it.auties.protobuf.base.ProtobufType.STRING;
@@ -51,11 +50,103 @@ public class MessageReceipt
     @ProtobufProperty(index = 6, type = STRING, repeated = true, implementation = ContactJid.class)
     @Default
     private List<ContactJid> readJids = new ArrayList<>();
-   
+
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final Set<ContactJid> deliveredJidsIndex = new LinkedHashSet<>();
+
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final Set<ContactJid> readJidsIndex = new LinkedHashSet<>();
+
     public static MessageReceipt of(){
         return MessageReceipt.builder()
                 .build();
     }
+
+    /**
+     * Adds a jid to the jids that received this message, unless it's already there
+     *
+     * @param jid the non-null jid to add
+     * @return whether the jid was added
+     */
+    public boolean addDeliveredJid(@NonNull ContactJid jid) {
+        return addJid(deliveredJids, deliveredJidsIndex, jid);
+    }
+
+    /**
+     * Adds a jid to the jids that read this message, unless it's already there
+     *
+     * @param jid the non-null jid to add
+     * @return whether the jid was added
+     */
+    public boolean addReadJid(@NonNull ContactJid jid) {
+        return addJid(readJids, readJidsIndex, jid);
+    }
+
+    // The lists can only change through this class, so an empty index for a non-empty list means that it wasn't built yet
+    private synchronized boolean addJid(List<ContactJid> jids, Set<ContactJid> index, ContactJid jid) {
+        if (index.isEmpty() && !jids.isEmpty()) {
+            index.addAll(jids);
+            jids.clear();
+            jids.addAll(index);
+        }
+
+        if (!index.add(jid)) {
+            return false;
+        }
+
+        jids.add(jid);
+        return true;
+    }
+
+    /**
+     * Returns the jids that received this message
+     *
+     * @return a non-null unmodifiable list
+     */
+    public List<ContactJid> deliveredJids() {
+        return Collections.unmodifiableList(deliveredJids);
+    }
+
+    /**
+     * Sets the jids that received this message
+     *
+     * @param deliveredJids the non-null jids
+     * @return the same instance
+     */
+    public synchronized MessageReceipt deliveredJids(@NonNull List<ContactJid> deliveredJids) {
+        this.deliveredJids = new ArrayList<>(deliveredJids);
+        deliveredJidsIndex.clear();
+        return this;
+    }
+
+    /**
+     * Returns the jids that read this message
+     *
+     * @return a non-null unmodifiable list
+     */
+    public List<ContactJid> readJids() {
+        return Collections.unmodifiableList(readJids);
+    }
+
+    /**
+     * Sets the jids that read this message
+     *
+     * @param readJids the non-null jids
+     * @return the same instance
+     */
+    public synchronized MessageReceipt readJids(@NonNull List<ContactJid> readJids) {
+        this.readJids = new ArrayList<>(readJids);
+        readJidsIndex.clear();
+        return this;
+    }
     
     public Optional<ZonedDateTime> deliveredTimestamp(){
         return Clock.parse(readTimestamp);
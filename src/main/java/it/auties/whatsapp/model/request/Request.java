@@ -35,7 +35,7 @@ public record Request(String id, @NonNull Object body, @NonNull CompletableFutur
     /**
      * The timeout in seconds before a Request wrapping a Node fails
      */
-    private static final int TIMEOUT = 60;
+    public static final int TIMEOUT = 60;
 
     /**
      * The delayed executor used to cancel futures
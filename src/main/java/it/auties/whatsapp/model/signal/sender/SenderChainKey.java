@@ -3,14 +3,20 @@ package it.auties.whatsapp.model.signal.sender;
 import it.auties.protobuf.base.ProtobufMessage;
 import it.auties.whatsapp.crypto.Hmac;
 import lombok.Builder;
+import lombok.SneakyThrows;
 import lombok.extern.jackson.Jacksonized;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.function.Consumer;
+
 @Builder
 @Jacksonized
 public record SenderChainKey(int iteration, byte[] seed)
         implements ProtobufMessage {
     private static final byte[] MESSAGE_KEY_SEED = {0x01};
     private static final byte[] CHAIN_KEY_SEED = {0x02};
+    private static final String HMAC_SHA_256 = "HmacSHA256";
 
     public SenderMessageKey toMessageKey() {
         var hmac = Hmac.calculateSha256(MESSAGE_KEY_SEED, seed);
@@ -21,4 +27,24 @@ public record SenderChainKey(int iteration, byte[] seed)
         var hmac = Hmac.calculateSha256(CHAIN_KEY_SEED, seed);
         return new SenderChainKey(iteration + 1, hmac);
     }
+
+    @SneakyThrows
+    public SenderChainKey advance(int target, int retainFrom, Consumer<SenderMessageKey> skipped) {
+        var mac = Mac.getInstance(HMAC_SHA_256);
+        var currentIteration = iteration;
+        var currentSeed = seed;
+        while (currentIteration < target) {
+            mac.init(new SecretKeySpec(currentSeed, HMAC_SHA_256));
+            if (currentIteration >= retainFrom) {
+                skipped.accept(new SenderMessageKey(currentIteration, mac.doFinal(MESSAGE_KEY_SEED)));
+            }
+
+            currentSeed = mac.doFinal(CHAIN_KEY_SEED);
+            currentIteration++;
+        }
+
+        return currentIteration == iteration ?
+                this :
+                new SenderChainKey(currentIteration, currentSeed);
+    }
 }
\ No newline at end of file
@@ -13,13 +13,15 @@ import java.util.*;
 @Jacksonized
 public class SenderKeyRecord
         implements ProtobufMessage {
+    private static final int MAX_STATES = 5;
+
     private final LinkedHashMap<Integer, List<SenderKeyState>> states;
 
     public SenderKeyRecord() {
         this.states = new LinkedHashMap<>();
     }
 
-    public SenderKeyState findState() {
+    public synchronized SenderKeyState findState() {
         return states.values()
                 .stream()
                 .flatMap(Collection::stream)
@@ -27,22 +29,50 @@ public class SenderKeyRecord
                 .orElseThrow(() -> new NoSuchElementException("Cannot get head state for empty record"));
     }
 
-    public List<SenderKeyState> findStateById(int keyId) {
-        return Objects.requireNonNull(states.get(keyId), "Cannot find state with id %s".formatted(keyId));
+    public synchronized List<SenderKeyState> findStateById(int keyId) {
+        var results = Objects.requireNonNull(states.get(keyId), "Cannot find state with id %s".formatted(keyId));
+        return List.copyOf(results);
     }
 
     public void addState(int id, int iteration, byte[] seed, byte[] signatureKey) {
         addState(id, iteration, seed, SignalKeyPair.of(signatureKey));
     }
 
-    public void addState(int id, int iteration, byte[] seed, SignalKeyPair signingKey) {
+    public synchronized void addState(int id, int iteration, byte[] seed, SignalKeyPair signingKey) {
         var state = new SenderKeyState(id, iteration, seed, signingKey);
-        var oldList = states.getOrDefault(id, new ArrayList<>());
-        oldList.add(state);
-        states.put(id, oldList);
+        states.computeIfAbsent(id, ignored -> new ArrayList<>())
+                .add(state);
+        removeOldStates();
+    }
+
+    private void removeOldStates() {
+        var excess = states.values()
+                .stream()
+                .mapToInt(List::size)
+                .sum() - MAX_STATES;
+        var iterator = states.values()
+                .iterator();
+        while (excess > 0 && iterator.hasNext()) {
+            var oldest = iterator.next();
+            var removed = Math.min(excess, oldest.size());
+            oldest.subList(0, removed)
+                    .clear();
+            excess -= removed;
+            if (oldest.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int messageKeysCount() {
+        return states.values()
+                .stream()
+                .flatMap(Collection::stream)
+                .mapToInt(SenderKeyState::messageKeysCount)
+                .sum();
     }
 
-    public boolean isEmpty() {
+    public synchronized boolean isEmpty() {
         return states.isEmpty();
     }
 
@@ -11,7 +11,7 @@ import lombok.extern.jackson.Jacksonized;
 
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 @AllArgsConstructor
 @Builder
@@ -20,26 +20,38 @@ import java.util.concurrent.ConcurrentHashMap;
 @Accessors(fluent = true)
 public class SenderKeyState
         implements ProtobufMessage, SignalSpecification {
+    public static final int MAX_MESSAGE_KEYS = 2000;
+
     private final int id;
     private final SignalKeyPair signingKey;
-    private final ConcurrentHashMap<Integer, SenderMessageKey> messageKeys;
+    private final ConcurrentSkipListMap<Integer, SenderMessageKey> messageKeys;
     private SenderChainKey chainKey;
 
     public SenderKeyState(int id, int iteration, byte[] seed, SignalKeyPair signingKey) {
         this.id = id;
         this.chainKey = new SenderChainKey(iteration, seed);
         this.signingKey = signingKey;
-        this.messageKeys = new ConcurrentHashMap<>();
+        this.messageKeys = new ConcurrentSkipListMap<>();
     }
 
     public void addSenderMessageKey(SenderMessageKey senderMessageKey) {
         messageKeys.put(senderMessageKey.iteration(), senderMessageKey);
+        messageKeys.headMap(senderMessageKey.iteration() - MAX_MESSAGE_KEYS)
+                .clear();
     }
 
     public Optional<SenderMessageKey> findSenderMessageKey(int iteration) {
         return Optional.ofNullable(messageKeys.get(iteration));
     }
 
+    public Optional<SenderMessageKey> removeSenderMessageKey(int iteration) {
+        return Optional.ofNullable(messageKeys.remove(iteration));
+    }
+
+    public int messageKeysCount() {
+        return messageKeys.size();
+    }
+
     public boolean equals(Object other) {
         return other instanceof SenderKeyState that && Objects.equals(this.id(), that.id());
     }
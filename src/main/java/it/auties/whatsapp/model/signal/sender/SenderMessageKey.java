@@ -14,18 +14,20 @@ import java.nio.charset.StandardCharsets;
 public record SenderMessageKey(int iteration, byte[] seed, byte[] iv, byte[] cipherKey)
         implements ProtobufMessage, SignalSpecification {
     public SenderMessageKey(int iteration, byte[] seed) {
-        this(iteration, seed, createIv(seed), createCipherKey(seed));
+        this(iteration, seed, getDerivedSeed(seed));
     }
 
-    private static byte[] createIv(byte[] seed) {
-        var derivative = getDerivedSeed(seed);
+    private SenderMessageKey(int iteration, byte[] seed, byte[][] derivative) {
+        this(iteration, seed, createIv(derivative), createCipherKey(derivative));
+    }
+
+    private static byte[] createIv(byte[][] derivative) {
         return Bytes.of(derivative[0])
                 .cut(IV_LENGTH)
                 .toByteArray();
     }
 
-    private static byte[] createCipherKey(byte[] seed) {
-        var derivative = getDerivedSeed(seed);
+    private static byte[] createCipherKey(byte[][] derivative) {
         return Bytes.of(derivative[0])
                 .slice(IV_LENGTH)
                 .append(derivative[1])
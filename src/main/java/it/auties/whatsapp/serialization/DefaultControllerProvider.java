@@ -14,7 +14,6 @@ import java.nio.file.attribute.FileTime;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static java.lang.System.Logger.Level.ERROR;
@@ -24,19 +23,20 @@ class DefaultControllerProvider
         implements ControllerSerializerProvider, ControllerDeserializerProvider {
     private static final String CHAT_PREFIX = "chat_";
 
-    private final AtomicReference<CompletableFuture<Void>> deserializer;
-    private final Map<ContactJid, Integer> hashCodesMap;
+    private final Map<Integer, CompletableFuture<Void>> deserializers;
+    private final Map<Integer, Map<ContactJid, Integer>> hashCodesMap;
 
     public DefaultControllerProvider() {
-        this.deserializer = new AtomicReference<>();
+        this.deserializers = new ConcurrentHashMap<>();
         this.hashCodesMap = new ConcurrentHashMap<>();
     }
 
     @Override
     public LinkedList<Integer> findIds() {
-        try (var walker = Files.walk(LocalFileSystem.home(), 1)
-                .sorted(Comparator.comparing(this::getLastModifiedTime))) {
-            return walker.map(this::parsePathAsId)
+        try (var walker = Files.walk(LocalFileSystem.home(), 1)) {
+            return walker.filter(path -> parsePathAsId(path).isPresent())
+                    .sorted(Comparator.comparing(this::getLastModifiedTime))
+                    .map(this::parsePathAsId)
                     .flatMap(Optional::stream)
                     .collect(Collectors.toCollection(LinkedList::new));
         } catch (IOException exception) {
@@ -63,8 +63,7 @@ class DefaultControllerProvider
 
     @Override
     public void serializeKeys(Keys keys, boolean async) {
-        if (deserializer.get() == null || !deserializer.get()
-                .isDone()) {
+        if (!isDeserialized(keys.id())) {
             return;
         }
 
@@ -74,21 +73,30 @@ class DefaultControllerProvider
 
     @Override
     public void serializeStore(Store store, boolean async) {
-        if (deserializer.get() == null || !deserializer.get()
-                .isDone()) {
+        if (!isDeserialized(store.id())) {
             return;
         }
 
         var preferences = SmileFile.of("%s/store.smile", store.id());
         preferences.write(store, async);
+        var hashCodes = findHashCodes(store.id());
         store.chats()
                 .stream()
-                .filter(this::updateHash)
+                .filter(chat -> updateHash(hashCodes, chat))
                 .forEach(chat -> serializeChat(store, chat));
     }
 
-    private boolean updateHash(Chat entry) {
-        var lastHashCode = hashCodesMap.get(entry.jid());
+    private boolean isDeserialized(int id) {
+        var deserializer = deserializers.get(id);
+        return deserializer != null && deserializer.isDone();
+    }
+
+    private Map<ContactJid, Integer> findHashCodes(int id) {
+        return hashCodesMap.computeIfAbsent(id, ignored -> new ConcurrentHashMap<>());
+    }
+
+    private boolean updateHash(Map<ContactJid, Integer> hashCodes, Chat entry) {
+        var lastHashCode = hashCodes.get(entry.jid());
         if (lastHashCode == null) {
             return true;
         }
@@ -98,7 +106,7 @@ class DefaultControllerProvider
             return false;
         }
 
-        hashCodesMap.put(entry.jid(), newHashCode);
+        hashCodes.put(entry.jid(), newHashCode);
         return true;
     }
 
@@ -129,14 +137,16 @@ class DefaultControllerProvider
 
     @Override
     public synchronized CompletableFuture<Void> attributeStore(Store store) {
-        var oldTask = deserializer.get();
+        var oldTask = deserializers.get(store.id());
         if (oldTask != null) {
             return oldTask;
         }
 
         var directory = LocalFileSystem.of(String.valueOf(store.id()));
         if (Files.notExists(directory)) {
-            return CompletableFuture.completedFuture(null);
+            var result = CompletableFuture.<Void>completedFuture(null);
+            deserializers.put(store.id(), result);
+            return result;
         }
 
         try (var walker = Files.walk(directory)) {
@@ -146,7 +156,7 @@ class DefaultControllerProvider
                     .map(entry -> deserializeChat(store, entry))
                     .toArray(CompletableFuture[]::new);
             var result = CompletableFuture.allOf(futures);
-            deserializer.set(result);
+            deserializers.put(store.id(), result);
             return result;
         } catch (IOException exception) {
             throw new UncheckedIOException("Cannot deserialize store", exception);
@@ -159,7 +169,7 @@ class DefaultControllerProvider
                 var chatPreferences = SmileFile.of(entry);
                 var chat = chatPreferences.read(Chat.class)
                         .orElseThrow(() -> new NoSuchElementException("Corrupted chat at %s".formatted(entry)));
-                hashCodesMap.put(chat.jid(), chat.hashCode());
+                findHashCodes(baseStore.id()).put(chat.jid(), chat.hashCode());
                 baseStore.addChatDirect(chat);
             } catch (IOException exception) {
                 var chatName = entry.getFileName()
@@ -22,12 +22,11 @@ import it.auties.whatsapp.util.*;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static it.auties.whatsapp.api.ErrorHandler.Location.*;
@@ -42,118 +41,155 @@ class AppStateHandler
     public static final int PULL_TIMEOUT = 30;
     public static final int PUSH_TIMEOUT = 120;
     private static final int PULL_ATTEMPTS = 3;
+    private static final int PUSH_ATTEMPTS = 3;
+    private static final int CONFLICT_CODE = 409;
     private final SocketHandler socketHandler;
-    private final Semaphore semaphore;
+    private final Map<PatchType, CompletableFuture<Void>> syncs;
+    private final Map<String, MutationKeys> mutationKeys;
     private CountDownLatch countDownLatch;
 
     @SneakyThrows
     protected AppStateHandler(SocketHandler socketHandler) {
         this.socketHandler = socketHandler;
-        this.semaphore = new Semaphore(1);
+        this.syncs = new ConcurrentHashMap<>();
+        this.mutationKeys = new ConcurrentHashMap<>();
         this.countDownLatch = new CountDownLatch(1);
     }
 
     protected CompletableFuture<Void> push(@NonNull PatchRequest patch) {
-        return CompletableFuture.runAsync(() -> acquireLock(true))
-                .thenComposeAsync(result -> sendPullRequest(patch.type()))
-                .thenApplyAsync(result -> createPushRequest(patch))
-                .thenComposeAsync(this::sendPush)
-                .thenRunAsync(semaphore::release)
-                .exceptionallyAsync(throwable -> {
-                    semaphore.release();
-                    return socketHandler.errorHandler()
-                            .handleFailure(PUSH_APP_STATE, throwable);
-                })
+        return push(List.of(patch));
+    }
+
+    protected CompletableFuture<Void> push(@NonNull Collection<PatchRequest> patches) {
+        var futures = patches.stream()
+                .collect(Collectors.groupingBy(PatchRequest::type, () -> new EnumMap<>(PatchType.class),
+                                               Collectors.toList()))
+                .entrySet()
+                .stream()
+                .map(entry -> push(entry.getKey(), entry.getValue()))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures);
+    }
+
+    private CompletableFuture<Void> push(PatchType patchType, List<PatchRequest> patches) {
+        return runWithLock(patchType, () -> push(patchType, patches, 0))
+                .exceptionallyAsync(throwable -> socketHandler.errorHandler()
+                        .handleFailure(PUSH_APP_STATE, throwable))
                 .orTimeout(PUSH_TIMEOUT, TimeUnit.SECONDS);
     }
 
-    private PushRequest createPushRequest(PatchRequest patch) {
+    private CompletableFuture<Void> push(PatchType patchType, List<PatchRequest> patches, int attempt) {
+        return sendPullRequest(patchType).thenApplyAsync(result -> createPushRequest(patchType, patches))
+                .thenComposeAsync(request -> sendPush(request, attempt));
+    }
+
+    private PushRequest createPushRequest(PatchType patchType, List<PatchRequest> patches) {
         try {
             var oldState = socketHandler.keys()
-                    .findHashStateByName(patch.type())
-                    .orElseGet(() -> new LTHashState(patch.type()));
+                    .findHashStateByName(patchType)
+                    .orElseGet(() -> new LTHashState(patchType));
             var newState = oldState.copy();
 
             var key = socketHandler.keys()
                     .appKey();
-
-            var index = patch.index()
-                    .getBytes(StandardCharsets.UTF_8);
-            var actionData = ActionDataSync.builder()
-                    .index(index)
-                    .value(patch.sync())
-                    .padding(new byte[0])
-                    .version(patch.version())
-                    .build();
-            var encoded = PROTOBUF.writeValueAsBytes(actionData);
-
-            var mutationKeys = MutationKeys.of(key.keyData()
-                                                       .keyData());
-            var encrypted = AesCbc.encryptAndPrefix(encoded, mutationKeys.encKey());
-            var valueMac = generateMac(patch.operation(), encrypted, key.keyId()
-                    .keyId(), mutationKeys.macKey());
-            var indexMac = Hmac.calculateSha256(index, mutationKeys.indexKey());
+            var syncId = new KeyId(key.keyId()
+                                           .keyId());
+            var mutationKeys = getMutationKeys(syncId);
 
             var generator = new LTHash(newState);
-            generator.mix(indexMac, valueMac, patch.operation());
+            var valueMacs = new ByteArrayOutputStream();
+            var mutations = new ArrayList<MutationSync>();
+            for (var patch : patches) {
+                var index = patch.index()
+                        .getBytes(StandardCharsets.UTF_8);
+                var actionData = ActionDataSync.builder()
+                        .index(index)
+                        .value(patch.sync())
+                        .padding(new byte[0])
+                        .version(patch.version())
+                        .build();
+                var encoded = PROTOBUF.writeValueAsBytes(actionData);
+                var encrypted = AesCbc.encryptAndPrefix(encoded, mutationKeys.encKey());
+                var valueMac = generateMac(patch.operation(), encrypted, syncId.id(), mutationKeys.macKey());
+                var indexMac = Hmac.calculateSha256(index, mutationKeys.indexKey());
+                generator.mix(indexMac, valueMac, patch.operation());
+                valueMacs.writeBytes(valueMac);
+
+                var record = RecordSync.builder()
+                        .index(new IndexSync(indexMac))
+                        .value(new ValueSync(Bytes.of(encrypted, valueMac)
+                                                     .toByteArray()))
+                        .keyId(syncId)
+                        .build();
+                var mutation = MutationSync.builder()
+                        .operation(patch.operation())
+                        .record(record)
+                        .build();
+                mutations.add(mutation);
+            }
+
             var result = generator.finish();
             newState.hash(result.hash());
             newState.indexValueMap(result.indexValueMap());
             newState.version(newState.version() + 1);
 
-            var syncId = new KeyId(key.keyId()
-                                           .keyId());
-            var record = RecordSync.builder()
-                    .index(new IndexSync(indexMac))
-                    .value(new ValueSync(Bytes.of(encrypted, valueMac)
-                                                 .toByteArray()))
-                    .keyId(syncId)
-                    .build();
-            var mutation = MutationSync.builder()
-                    .operation(patch.operation())
-                    .record(record)
-                    .build();
-
-            var snapshotMac = generateSnapshotMac(newState.hash(), newState.version(), patch.type(),
+            var snapshotMac = generateSnapshotMac(newState.hash(), newState.version(), patchType,
                                                   mutationKeys.snapshotMacKey());
-            var patchMac = generatePatchMac(snapshotMac, valueMac, newState.version(), patch.type(),
+            var patchMac = generatePatchMac(snapshotMac, valueMacs.toByteArray(), newState.version(), patchType,
                                             mutationKeys.patchMacKey());
             var sync = PatchSync.builder()
                     .patchMac(patchMac)
                     .snapshotMac(snapshotMac)
                     .keyId(syncId)
-                    .mutations(List.of(mutation))
+                    .mutations(mutations)
                     .build();
-            newState.indexValueMap()
-                    .put(Bytes.of(indexMac)
-                                 .toBase64(), valueMac);
-
-            return new PushRequest(patch, oldState, newState, sync);
+            return new PushRequest(patchType, patches, oldState, newState, sync);
         } catch (Throwable throwable) {
-            throw new RuntimeException("Cannot create patch %s".formatted(patch), throwable);
+            throw new RuntimeException("Cannot create patches %s".formatted(patches), throwable);
         }
     }
 
-    private CompletableFuture<Void> sendPush(PushRequest request) {
+    private CompletableFuture<Void> sendPush(PushRequest request, int attempt) {
         try {
-            var body = ofChildren("collection", of("name", request.patch()
-                                          .type(), "version", request.newState()
-                                                           .version() - 1, "return_snapshot", false),
+            var body = ofChildren("collection", of("name", request.patchType(), "version", request.newState()
+                                          .version() - 1, "return_snapshot", false),
                                   Node.of("patch", PROTOBUF.writeValueAsBytes(request.sync())));
             return socketHandler.sendQuery("set", "w:sync:app:state", Node.ofChildren("sync", body))
-                    .thenAcceptAsync(this::parseSyncRequest)
-                    .thenRunAsync(() -> socketHandler.keys()
-                            .putState(request.patch()
-                                              .type(), request.newState()))
-                    .thenRunAsync(() -> handleSyncRequest(request.patch()
-                                                                  .type(), request.sync(), request.oldState(),
-                                                          request.newState()
-                                                                  .version()));
+                    .thenComposeAsync(response -> handlePushResponse(request, attempt, response));
         } catch (Throwable throwable) {
             throw new RuntimeException("Cannot push patch", throwable);
         }
     }
 
+    private CompletableFuture<Void> handlePushResponse(PushRequest request, int attempt, Node response) {
+        if (isConflict(response)) {
+            // Another companion pushed to this collection in the meanwhile: pull its changes and rebuild the batch
+            Validate.isTrue(attempt + 1 < PUSH_ATTEMPTS, "Cannot push patch(%s tries)", PUSH_ATTEMPTS);
+            return push(request.patchType(), request.patches(), attempt + 1);
+        }
+
+        parseSyncRequest(response);
+        socketHandler.keys()
+                .putState(request.patchType(), request.newState());
+        handleSyncRequest(request.patchType(), request.sync(), request.oldState(), request.newState()
+                .version());
+        return completedFuture(null);
+    }
+
+    private boolean isConflict(Node response) {
+        return Optional.ofNullable(response)
+                .flatMap(node -> node.findNode("sync"))
+                .map(sync -> sync.findNodes("collection"))
+                .stream()
+                .flatMap(Collection::stream)
+                .filter(collection -> Objects.equals(collection.attributes()
+                                                             .getString("type"), "error"))
+                .map(collection -> collection.findNode("error"))
+                .flatMap(Optional::stream)
+                .anyMatch(error -> error.attributes()
+                        .getInt("code") == CONFLICT_CODE);
+    }
+
     private void handleSyncRequest(PatchType patchType, PatchSync patch, LTHashState oldState, long newVersion) {
         decodePatches(patchType, 0, List.of(patch.withVersion(new VersionSync(newVersion))), oldState).records()
                 .forEach(this::processActions);
@@ -161,13 +197,15 @@ class AppStateHandler
 
     @SuppressWarnings("UnusedReturnValue")
     protected CompletableFuture<Void> pull(boolean initial, PatchType... patchTypes) {
-        return CompletableFuture.runAsync(() -> acquireLock(!initial))
-                .thenComposeAsync(ignored -> sendPullRequest(patchTypes))
+        Validate.isTrue(patchTypes.length != 0, "Cannot pull no patches", IllegalArgumentException.class);
+        var futures = Arrays.stream(patchTypes)
+                .map(this::pullWithLock)
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures)
                 .thenRunAsync(() -> {
                     countDownLatch.countDown();
                     socketHandler.store()
                             .initialAppSync(true);
-                    semaphore.release();
                 })
                 .exceptionallyAsync(exception -> {
                     if (initial) {
@@ -178,8 +216,33 @@ class AppStateHandler
 
                     return socketHandler.errorHandler()
                             .handleFailure(PULL_APP_STATE, exception);
-                })
-                .orTimeout(PULL_TIMEOUT, TimeUnit.SECONDS);
+                });
+    }
+
+    private CompletableFuture<Void> pullWithLock(PatchType patchType) {
+        return runWithLock(patchType, () -> sendPullRequest(patchType));
+    }
+
+    // Syncs of the same patch type run one at a time: a sync starts when the previous one completes, whether it
+    // succeeded or not, so no thread is blocked while it waits for its turn
+    private CompletableFuture<Void> runWithLock(PatchType patchType, Supplier<CompletableFuture<Void>> task) {
+        var result = new CompletableFuture<Void>();
+        var previous = syncs.put(patchType, result);
+        requireNonNullElse(previous, completedFuture(null))
+                .handleAsync((ignored, throwable) -> null)
+                .thenComposeAsync(ignored -> result.isDone() ?
+                        completedFuture(null) :
+                        task.get())
+                .whenCompleteAsync((ignored, throwable) -> {
+                    if (throwable != null) {
+                        result.completeExceptionally(throwable);
+                        return;
+                    }
+
+                    result.complete(null);
+                });
+        result.whenCompleteAsync((ignored, throwable) -> syncs.remove(patchType, result));
+        return result;
     }
 
     private CompletableFuture<Void> sendPullRequest(PatchType... patchTypes) {
@@ -198,6 +261,7 @@ class AppStateHandler
                 .map(LTHashState::toNode)
                 .toList();
         return socketHandler.sendQuery("set", "w:sync:app:state", Node.ofChildren("sync", nodes))
+                .orTimeout(PULL_TIMEOUT, TimeUnit.SECONDS)
                 .thenApplyAsync(this::parseSyncRequest)
                 .thenApplyAsync(records -> decodeSyncs(versions, attempts, tempStates, records))
                 .thenComposeAsync(remaining -> remaining.isEmpty() ?
@@ -313,7 +377,7 @@ class AppStateHandler
 
         var blob = PROTOBUF.readMessage(snapshot.contentAsBytes()
                                                 .orElseThrow(), ExternalBlobReference.class);
-        var syncedData = Medias.download(blob);
+        var syncedData = Medias.download(blob, socketHandler.mediaTransfers());
         Validate.isTrue(syncedData.status() == DownloadResult.Status.SUCCESS, "Cannot download snapshot");
         return PROTOBUF.readMessage(syncedData.media()
                                             .get(), SnapshotSync.class);
@@ -456,7 +520,7 @@ class AppStateHandler
     private Optional<MutationsRecord> decodePatch(PatchType patchType, long minimumVersion, LTHashState newState,
             PatchSync patch) {
         if (patch.hasExternalMutations()) {
-            var blob = Medias.download(patch.externalMutations());
+            var blob = Medias.download(patch.externalMutations(), socketHandler.mediaTransfers());
             Validate.isTrue(blob.status() == DownloadResult.Status.SUCCESS, "Cannot download mutations");
             var mutationsSync = PROTOBUF.readMessage(blob.media()
                                                              .get(), MutationsSync.class);
@@ -521,6 +585,11 @@ class AppStateHandler
     }
 
     private MutationKeys getMutationKeys(KeyId snapshot) {
+        return mutationKeys.computeIfAbsent(Bytes.of(snapshot.id())
+                                                    .toBase64(), ignored -> createMutationKeys(snapshot));
+    }
+
+    private MutationKeys createMutationKeys(KeyId snapshot) {
         var encryptedKey = socketHandler.keys()
                 .findAppKeyById(snapshot.id())
                 .orElseThrow(() -> new NoSuchElementException("No keys available for mutation"));
@@ -529,15 +598,21 @@ class AppStateHandler
     }
 
     private MutationsRecord decodeMutations(List<? extends Syncable> syncs, LTHashState state) {
+        // Verification, decryption and parsing are independent for each mutation, so they run in parallel:
+        // the lt hash instead depends on the order of the mutations, so it's mixed sequentially afterwards
+        var decoded = syncs.parallelStream()
+                .map(mutation -> decodeMutation(mutation.operation(), mutation.record()))
+                .toList();
         var generator = new LTHash(state);
-        var mutations = syncs.stream()
-                .map(mutation -> decodeMutation(mutation.operation(), mutation.record(), generator))
+        decoded.forEach(mutation -> generator.mix(mutation.indexMac(), mutation.valueMac(), mutation.operation()));
+        var mutations = decoded.stream()
+                .map(DecodedMutation::action)
                 .collect(Collectors.toList());
         return new MutationsRecord(generator.finish(), mutations);
     }
 
     @SneakyThrows
-    private ActionDataSync decodeMutation(RecordSync.Operation operation, RecordSync sync, LTHash generator) {
+    private DecodedMutation decodeMutation(RecordSync.Operation operation, RecordSync sync) {
         var mutationKeys = getMutationKeys(sync.keyId());
 
         var blob = Bytes.of(sync.value()
@@ -555,9 +630,8 @@ class AppStateHandler
                                               .blob(),
                                       Hmac.calculateSha256(actionSync.index(), mutationKeys.indexKey())),
                         "decode_mutation", HmacValidationException.class);
-        generator.mix(sync.index()
-                              .blob(), encryptedMac, operation);
-        return actionSync;
+        return new DecodedMutation(operation, sync.index()
+                .blob(), encryptedMac, actionSync);
     }
 
     private byte[] generateMac(RecordSync.Operation operation, byte[] data, byte[] keyId, byte[] key) {
@@ -596,18 +670,6 @@ class AppStateHandler
         return Hmac.calculateSha256(total, key);
     }
 
-    private void acquireLock(boolean necessary) {
-        try {
-            if (!necessary) {
-                return;
-            }
-
-            semaphore.acquire();
-        } catch (InterruptedException exception) {
-            throw new RuntimeException("Cannot lock", exception);
-        }
-    }
-
     public void awaitReady() {
         try {
             countDownLatch.await();
@@ -616,8 +678,14 @@ class AppStateHandler
         }
     }
 
+    // The pending syncs are failed instead of awaited, so that the socket is closed without blocking: the syncs that
+    // didn't start yet are skipped, and the requests of the running ones fail once the socket is closed
     public void dispose(){
-        semaphore.release();
+        var cancellation = new CancellationException("The app state handler was disposed");
+        syncs.values()
+                .forEach(sync -> sync.completeExceptionally(cancellation));
+        syncs.clear();
+        mutationKeys.clear();
         this.countDownLatch = new CountDownLatch(1);
     }
 
@@ -640,11 +708,17 @@ class AppStateHandler
 
     }
 
+    private record DecodedMutation(RecordSync.Operation operation, byte[] indexMac, byte[] valueMac,
+                                   ActionDataSync action) {
+
+    }
+
     private record PatchChunk(PatchType patchType, List<ActionDataSync> records, boolean hasMore) {
 
     }
 
-    private record PushRequest(PatchRequest patch, LTHashState oldState, LTHashState newState, PatchSync sync) {
+    private record PushRequest(PatchType patchType, List<PatchRequest> patches, LTHashState oldState,
+                               LTHashState newState, PatchSync sync) {
 
     }
 }
@@ -1,7 +1,5 @@
 package it.auties.whatsapp.socket;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
 import it.auties.bytes.Bytes;
 import it.auties.whatsapp.crypto.*;
 import it.auties.whatsapp.model.action.ContactAction;
@@ -9,14 +7,13 @@ import it.auties.whatsapp.model.business.BusinessVerifiedNameCertificate;
 import it.auties.whatsapp.model.business.BusinessVerifiedNameDetails;
 import it.auties.whatsapp.model.chat.Chat;
 import it.auties.whatsapp.model.chat.ChatEphemeralTimer;
-import it.auties.whatsapp.model.chat.GroupMetadata;
+import it.auties.whatsapp.model.chat.PastParticipants;
 import it.auties.whatsapp.model.contact.Contact;
 import it.auties.whatsapp.model.contact.ContactJid;
 import it.auties.whatsapp.model.contact.ContactJid.Type;
 import it.auties.whatsapp.model.contact.ContactStatus;
 import it.auties.whatsapp.model.info.MessageIndexInfo;
 import it.auties.whatsapp.model.info.MessageInfo;
-import it.auties.whatsapp.model.media.DownloadResult;
 import it.auties.whatsapp.model.message.model.*;
 import it.auties.whatsapp.model.message.server.DeviceSentMessage;
 import it.auties.whatsapp.model.message.server.ProtocolMessage;
@@ -28,31 +25,38 @@ import it.auties.whatsapp.model.poll.PollVoteMessage;
 import it.auties.whatsapp.model.request.Attributes;
 import it.auties.whatsapp.model.request.Node;
 import it.auties.whatsapp.model.setting.EphemeralSetting;
-import it.auties.whatsapp.model.signal.keypair.SignalPreKeyPair;
 import it.auties.whatsapp.model.signal.keypair.SignalSignedKeyPair;
 import it.auties.whatsapp.model.signal.message.SignalDistributionMessage;
 import it.auties.whatsapp.model.signal.message.SignalMessage;
 import it.auties.whatsapp.model.signal.message.SignalPreKeyMessage;
 import it.auties.whatsapp.model.signal.sender.SenderKeyName;
 import it.auties.whatsapp.model.sync.HistorySync;
+import it.auties.whatsapp.model.sync.HistorySync.HistorySyncHistorySyncType;
 import it.auties.whatsapp.model.sync.PushName;
 import it.auties.whatsapp.util.*;
+import it.auties.whatsapp.util.ProtobufStreamReader.Field;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleSupplier;
 import java.util.stream.Stream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static it.auties.whatsapp.api.ErrorHandler.Location.MESSAGE;
 import static it.auties.whatsapp.model.request.Node.ofAttributes;
 import static it.auties.whatsapp.model.request.Node.ofChildren;
+import static it.auties.whatsapp.model.sync.HistorySync.HistorySyncHistorySyncType.INITIAL_BOOTSTRAP;
 import static it.auties.whatsapp.model.sync.HistorySync.HistorySyncHistorySyncType.RECENT;
 import static java.util.Map.of;
 import static java.util.Objects.requireNonNull;
@@ -66,33 +70,29 @@ class MessageHandler
     private static final String PKMSG = "pkmsg";
     private static final String MSG = "msg";
     private static final int MAX_ATTEMPTS = 3;
+    private static final int HISTORY_SYNC_BATCH_SIZE = 64;
+    private static final int DEVICES_QUERY_CHUNK_SIZE = 250;
 
     private final SocketHandler socketHandler;
     private final Map<String, Integer> retries;
-    private final Cache<ContactJid, GroupMetadata> groupsCache;
-    private final Cache<String, List<ContactJid>> devicesCache;
-    private final Set<Chat> historyCache;
+    private final Set<ContactJid> historyCache;
     private final AtomicBoolean receivedPushNames;
     private final AtomicBoolean sentInitialPatch;
     private final Semaphore encodeSemaphore;
+    private final Map<DevicesQuery, CompletableFuture<List<ContactJid>>> devicesQueries;
+    private final Map<HistorySyncHistorySyncType, HistorySyncProgress> historySyncProgress;
 
     protected MessageHandler(SocketHandler socketHandler) {
         this.socketHandler = socketHandler;
         this.retries = new HashMap<>();
-        this.groupsCache = createCache(Duration.ofMinutes(5));
-        this.devicesCache = createCache(Duration.ofMinutes(5));
-        this.historyCache = new HashSet<>();
+        this.devicesQueries = new ConcurrentHashMap<>();
+        this.historySyncProgress = new ConcurrentHashMap<>();
+        this.historyCache = ConcurrentHashMap.newKeySet();
         this.encodeSemaphore = new Semaphore(1);
         this.sentInitialPatch = new AtomicBoolean(false);
         this.receivedPushNames = new AtomicBoolean(false);
     }
 
-    private <K, V> Cache<K, V> createCache(Duration duration) {
-        return Caffeine.newBuilder()
-                .expireAfterWrite(duration)
-                .build();
-    }
-
     @SafeVarargs
     protected final CompletableFuture<Void> encode(MessageInfo info, Entry<String, Object>... attributes) {
         return CompletableFuture.runAsync(this::prepareEncoding)
@@ -122,10 +122,8 @@ class MessageHandler
         var signalMessage = groupBuilder.createOutgoing(senderName);
         var groupCipher = new GroupCipher(senderName, socketHandler.keys());
         var groupMessage = groupCipher.encrypt(encodedMessage);
-        return Optional.ofNullable(groupsCache.getIfPresent(info.chatJid()))
-                .map(CompletableFuture::completedFuture)
-                .orElseGet(() -> socketHandler.queryGroupMetadata(info.chatJid()))
-                .thenComposeAsync(this::getDevices)
+        return findGroupParticipants(info.chatJid())
+                .thenComposeAsync(participants -> getDevices(participants, false))
                 .thenComposeAsync(allDevices -> createGroupNodes(info, signalMessage, allDevices))
                 .thenApplyAsync(preKeys -> createEncodedMessageNode(info, preKeys, groupMessage, attributes))
                 .thenComposeAsync(socketHandler::send);
@@ -266,23 +264,48 @@ class MessageHandler
         return ofChildren("to", of("jid", contact), encrypted);
     }
 
-    private CompletableFuture<List<ContactJid>> getDevices(GroupMetadata metadata) {
-        groupsCache.put(metadata.jid(), metadata);
-        return getDevices(metadata.participantsJids(), false);
+    private CompletableFuture<List<ContactJid>> findGroupParticipants(ContactJid group) {
+        var cache = socketHandler.recipientsCache();
+        var cached = cache.findGroupParticipants(group);
+        if (cached.isEmpty()) {
+            return queryGroupParticipants(group);
+        }
+
+        if (cache.isGroupStale(group)) {
+            cache.refreshGroup(group, () -> queryGroupParticipants(group));
+        }
+
+        return completedFuture(cached.get());
+    }
+
+    private CompletableFuture<List<ContactJid>> queryGroupParticipants(ContactJid group) {
+        return socketHandler.queryGroupMetadata(group)
+                .thenApplyAsync(metadata -> socketHandler.recipientsCache()
+                        .putGroupParticipants(group, metadata.participantsJids()));
     }
 
     private CompletableFuture<List<ContactJid>> getDevices(List<ContactJid> contacts, boolean excludeSelf) {
-        var partitioned = contacts.stream()
-                .collect(partitioningBy(contact -> devicesCache.asMap()
-                        .containsKey(contact.user()), toUnmodifiableList()));
-        var cached = partitioned.get(true)
-                .stream()
-                .map(ContactJid::user)
-                .map(devicesCache::getIfPresent)
-                .filter(Objects::nonNull)
-                .flatMap(Collection::stream)
-                .toList();
-        var missing = partitioned.get(false);
+        var cache = socketHandler.recipientsCache();
+        var cached = new ArrayList<ContactJid>();
+        var missing = new ArrayList<ContactJid>();
+        var stale = new ArrayList<ContactJid>();
+        for (var contact : contacts) {
+            var devices = cache.findDevices(contact.user());
+            if (devices.isEmpty()) {
+                missing.add(contact);
+                continue;
+            }
+
+            cached.addAll(devices.get());
+            if (cache.isDeviceStale(contact.user())) {
+                stale.add(contact);
+            }
+        }
+
+        if (!stale.isEmpty()) {
+            cache.refreshDevices(stale, contactsToRefresh -> queryDevices(contactsToRefresh, excludeSelf));
+        }
+
         if (missing.isEmpty()) {
             return completedFuture(excludeSelf ?
                                            toSingleList(contacts, cached) :
@@ -294,9 +317,50 @@ class MessageHandler
                 toSingleList(cached, missingDevices));
     }
 
-    private CompletableFuture<List<ContactJid>> queryDevices(List<ContactJid> contacts, boolean excludeSelf) {
-        var contactNodes = contacts.stream()
-                .map(contact -> ofAttributes("user", of("jid", contact)))
+    // Users that are already being queried share the pending result, the others are queried in parallel chunks
+    protected CompletableFuture<List<ContactJid>> queryDevices(List<ContactJid> contacts, boolean excludeSelf) {
+        var results = new ArrayList<CompletableFuture<List<ContactJid>>>();
+        var owned = new LinkedHashMap<DevicesQuery, CompletableFuture<List<ContactJid>>>();
+        var users = new HashSet<String>();
+        for (var contact : contacts) {
+            if (!users.add(contact.user())) {
+                continue;
+            }
+
+            var query = new DevicesQuery(contact.toUserJid(), excludeSelf);
+            var future = new CompletableFuture<List<ContactJid>>();
+            var pending = devicesQueries.putIfAbsent(query, future);
+            if (pending != null) {
+                results.add(pending);
+                continue;
+            }
+
+            owned.put(query, future);
+            results.add(future);
+        }
+
+        var queries = List.copyOf(owned.keySet());
+        for (var start = 0; start < queries.size(); start += DEVICES_QUERY_CHUNK_SIZE) {
+            var chunk = queries.subList(start, Math.min(start + DEVICES_QUERY_CHUNK_SIZE, queries.size()));
+            try {
+                queryDevicesChunk(chunk, excludeSelf).whenCompleteAsync(
+                        (devices, throwable) -> completeDevicesQueries(chunk, owned, devices, throwable));
+            } catch (Throwable throwable) {
+                // The futures were already shared with other lookups, so they must be completed even if the query cannot be sent
+                completeDevicesQueries(chunk, owned, null, throwable);
+            }
+        }
+
+        return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                .thenApplyAsync(ignored -> results.stream()
+                        .map(CompletableFuture::join)
+                        .flatMap(Collection::stream)
+                        .toList());
+    }
+
+    private CompletableFuture<List<ContactJid>> queryDevicesChunk(List<DevicesQuery> queries, boolean excludeSelf) {
+        var contactNodes = queries.stream()
+                .map(query -> ofAttributes("user", of("jid", query.user())))
                 .toList();
         var body = Node.ofChildren("usync", of("sid", socketHandler.store()
                                            .nextTag(), "mode", "query", "last", "true", "index", "0", "context", "message"),
@@ -306,6 +370,26 @@ class MessageHandler
                 .thenApplyAsync(result -> parseDevices(result, excludeSelf));
     }
 
+    private void completeDevicesQueries(List<DevicesQuery> queries,
+            Map<DevicesQuery, CompletableFuture<List<ContactJid>>> futures, List<ContactJid> devices,
+            Throwable throwable) {
+        var devicesByUser = devices == null ?
+                Map.<String, List<ContactJid>>of() :
+                devices.stream()
+                        .collect(groupingBy(ContactJid::user));
+        for (var query : queries) {
+            var future = futures.get(query);
+            devicesQueries.remove(query, future);
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+                continue;
+            }
+
+            future.complete(devicesByUser.getOrDefault(query.user()
+                                                               .user(), List.of()));
+        }
+    }
+
     private List<ContactJid> parseDevices(Node node, boolean excludeSelf) {
         var results = node.children()
                 .stream()
@@ -316,7 +400,8 @@ class MessageHandler
                 .map(entry -> parseDevice(entry, excludeSelf))
                 .flatMap(Collection::stream)
                 .toList();
-        devicesCache.putAll(results.stream()
+        socketHandler.recipientsCache()
+                .putDevices(results.stream()
                                     .collect(groupingBy(ContactJid::user)));
         return results;
     }
@@ -486,8 +571,8 @@ class MessageHandler
             var category = infoNode.attributes()
                     .getString("category");
             saveMessage(info, category);
-            socketHandler.sendReceipt(info.chatJid(), info.senderJid(), List.of(info.key()
-                                                                                        .id()), null);
+            socketHandler.queueReceipt(info.chatJid(), info.senderJid(), info.key()
+                    .id(), null);
             socketHandler.sendMessageAck(infoNode, infoNode.attributes()
                     .map());
             socketHandler.onReply(info);
@@ -611,8 +696,9 @@ class MessageHandler
 
     private Node createPreKeyNode() {
         try {
-            var preKey = SignalPreKeyPair.random(socketHandler.keys()
-                                                         .lastPreKeyId() + 1);
+            var preKey = socketHandler.keys()
+                    .generatePreKeys(1)
+                    .get(0);
             var identity = PROTOBUF.writeValueAsBytes(socketHandler.keys()
                                                               .companionIdentity());
             return Node.ofChildren("keys", Node.of("type", SignalSpecification.KEY_BUNDLE_TYPE), Node.of("identity",
@@ -650,7 +736,12 @@ class MessageHandler
 
                     var session = new SessionCipher(user.toSignalAddress(), socketHandler.keys());
                     var preKey = SignalPreKeyMessage.ofSerialized(encodedMessage);
-                    yield session.decrypt(preKey);
+                    var decoded = session.decrypt(preKey);
+                    if (preKey.preKeyId() != null) {
+                        socketHandler.consumePreKey();
+                    }
+
+                    yield decoded;
                 }
 
                 case MSG -> {
@@ -712,8 +803,7 @@ class MessageHandler
 
         if (!info.ignore()) {
             info.chat()
-                    .unreadMessagesCount(info.chat()
-                                                 .unreadMessagesCount() + 1);
+                    .incrementUnreadMessagesCount();
         }
 
         socketHandler.onNewMessage(info);
@@ -733,9 +823,11 @@ class MessageHandler
     private void handleProtocolMessage(MessageInfo info, ProtocolMessage protocolMessage, boolean peer) {
         switch (protocolMessage.protocolType()) {
             case HISTORY_SYNC_NOTIFICATION -> {
-                var history = downloadHistorySync(protocolMessage);
-                handleHistorySync(history);
+                var history = readHistorySync(protocolMessage);
                 if (history.progress() != null) {
+                    historySyncProgress.merge(history.syncType(), new HistorySyncProgress(history.progress(), 1),
+                                              (previous, next) -> new HistorySyncProgress(next.progress(),
+                                                                                          previous.chunks() + 1));
                     socketHandler.onHistorySyncProgress(history.progress(), history.syncType() == RECENT);
                 }
 
@@ -774,38 +866,164 @@ class MessageHandler
         socketHandler.sendSyncReceipt(info, "peer_msg");
     }
 
-    private HistorySync downloadHistorySync(ProtocolMessage protocolMessage) {
+    // The history sync is authenticated only once it was downloaded completely, so it's spooled to a scratch file
+    // before it's parsed: nothing is written to the store or sent to the listeners if the download fails validation
+    private HistorySync readHistorySync(ProtocolMessage protocolMessage) {
+        Path spool = null;
         try {
-            var compressed = Medias.download(protocolMessage.historySyncNotification());
-            Validate.isTrue(compressed.status() == DownloadResult.Status.SUCCESS, "Cannot download history sync");
-            var decompressed = BytesHelper.deflate(compressed.media()
-                                                           .get());
-            return PROTOBUF.readMessage(decompressed, HistorySync.class);
+            spool = Files.createTempFile("history-sync", ".part");
+            var result = Medias.download(protocolMessage.historySyncNotification(), spool,
+                                         socketHandler.mediaTransfers());
+            switch (result.status()) {
+                case MISSING -> throw new NoSuchElementException("Cannot download history sync: missing media");
+                case ERROR -> throw new IllegalStateException("Cannot download history sync", result.error()
+                        .orElse(null));
+            }
+
+            return readHistorySync(spool);
         } catch (IOException exception) {
             throw new UncheckedIOException("Cannot read history sync", exception);
+        } finally {
+            deleteSpool(spool);
+        }
+    }
+
+    private HistorySync readHistorySync(Path spool) throws IOException {
+        var inflater = new Inflater();
+        var size = Files.size(spool);
+        DoubleSupplier position = () -> size <= 0 ?
+                0 :
+                Math.min((double) inflater.getBytesRead() / size, 1);
+        try (var reader = new ProtobufStreamReader(new InflaterInputStream(Files.newInputStream(spool), inflater))) {
+            var history = HistorySync.builder()
+                    .build();
+            var pending = new ArrayList<Field>();
+            var conversations = new ArrayList<Chat>();
+            var chats = new HashSet<ContactJid>();
+            Optional<Field> next;
+            while ((next = reader.next()).isPresent()) {
+                var field = next.get();
+                switch (field.index()) {
+                    case 1 -> history.syncType(HistorySyncHistorySyncType.of((int) field.value()));
+                    case 5 -> history.chunkOrder((int) field.value());
+                    case 6 -> history.progress((int) field.value());
+                    default -> pending.add(field);
+                }
+
+                if (history.syncType() == null) {
+                    continue;
+                }
+
+                for (var entry : pending) {
+                    handleHistorySyncField(history, entry, conversations, chats, position);
+                }
+
+                pending.clear();
+            }
+
+            if (history.syncType() == null) {
+                history.syncType(INITIAL_BOOTSTRAP);
+                for (var entry : pending) {
+                    handleHistorySyncField(history, entry, conversations, chats, position);
+                }
+            }
+
+            mergeConversations(history, conversations, chats);
+            completeHistorySync(history, chats);
+            return history;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void deleteSpool(Path spool) {
+        try {
+            if (spool != null) {
+                Files.deleteIfExists(spool);
+            }
+        } catch (IOException ignored) {
+
         }
     }
 
-    private void handleHistorySync(HistorySync history) {
+    private void handleHistorySyncField(HistorySync history, Field field, List<Chat> conversations,
+            Set<ContactJid> chats, DoubleSupplier position) throws IOException {
         switch (history.syncType()) {
             case INITIAL_STATUS_V3 -> {
-                history.statusV3Messages()
-                        .forEach(socketHandler.store()::addStatus);
-                socketHandler.onMediaStatus();
+                if (field.index() == 3) {
+                    socketHandler.store()
+                            .addStatus(PROTOBUF.readMessage(field.bytes(), MessageInfo.class));
+                }
+            }
+
+            case INITIAL_BOOTSTRAP, RECENT, FULL -> {
+                if (field.index() == 2) {
+                    conversations.add(PROTOBUF.readMessage(field.bytes(), Chat.class));
+                    if (conversations.size() >= HISTORY_SYNC_BATCH_SIZE) {
+                        mergeConversations(history, conversations, chats);
+                    }
+
+                    onConversationDecoded(history, position.getAsDouble());
+                }
+            }
+
+            case PUSH_NAME -> {
+                if (field.index() == 7) {
+                    handNewPushName(PROTOBUF.readMessage(field.bytes(), PushName.class));
+                }
+            }
+
+            case NON_BLOCKING_DATA -> {
+                if (field.index() == 12) {
+                    var pastParticipants = PROTOBUF.readMessage(field.bytes(), PastParticipants.class);
+                    socketHandler.store()
+                            .findChatByJid(pastParticipants.groupJid())
+                            .orElseGet(() -> socketHandler.store()
+                                    .addChat(pastParticipants.groupJid()))
+                            .pastParticipants()
+                            .addAll(pastParticipants.pastParticipants());
+                }
+            }
+        }
+    }
+
+    // The progress of a chunk is only known once it's read completely, so while a chunk is being read the progress is
+    // estimated from the average progress of the previous chunks and the fraction of the chunk that was already read.
+    // No estimate is possible for the first chunk, so its conversations report the initial progress.
+    private void onConversationDecoded(HistorySync history, double position) {
+        var previous = historySyncProgress.getOrDefault(history.syncType(), new HistorySyncProgress(0, 0));
+        var step = previous.chunks() == 0 ?
+                0 :
+                (double) previous.progress() / previous.chunks();
+        var estimate = (int) Math.min(previous.progress() + step * position, 99);
+        socketHandler.onHistorySyncProgress(Math.max(estimate, previous.progress()), history.syncType() == RECENT);
+    }
+
+    private void mergeConversations(HistorySync history, List<Chat> conversations, Set<ContactJid> chats) {
+        var merged = socketHandler.store()
+                .mergeChats(conversations);
+        conversations.clear();
+        for (var chat : merged) {
+            if (history.syncType() == INITIAL_BOOTSTRAP) {
+                historyCache.add(chat.jid());
+                continue;
             }
 
+            chats.add(chat.jid());
+        }
+    }
+
+    private void completeHistorySync(HistorySync history, Set<ContactJid> chats) {
+        switch (history.syncType()) {
+            case INITIAL_STATUS_V3 -> socketHandler.onMediaStatus();
+
             case INITIAL_BOOTSTRAP -> {
-                historyCache.addAll(history.conversations());
-                history.conversations()
-                        .forEach(this::updateChatMessages);
                 socketHandler.store()
                         .initialSnapshot(true);
                 socketHandler.onChats();
             }
 
             case PUSH_NAME -> {
-                history.pushNames()
-                        .forEach(this::handNewPushName);
                 receivedPushNames.set(true);
                 if (socketHandler.store()
                         .initialSnapshot()) {
@@ -814,50 +1032,22 @@ class MessageHandler
             }
 
             case RECENT, FULL -> {
-                handleRecentMessagesListener(history);
+                historyCache.removeIf(jid -> completeChatMessages(jid, chats));
                 if (!sentInitialPatch.getAndSet(true)) {
                     socketHandler.pullInitialPatches()
-                            .thenRunAsync(this::subscribeToAllPresences);
+                            .thenRunAsync(socketHandler::subscribeToAllPresences);
                 }
             }
-
-            case NON_BLOCKING_DATA -> history.pastParticipants()
-                    .forEach(pastParticipants -> socketHandler.store()
-                            .findChatByJid(pastParticipants.groupJid())
-                            .orElseGet(() -> socketHandler.store()
-                                    .addChat(pastParticipants.groupJid()))
-                            .pastParticipants()
-                            .addAll(pastParticipants.pastParticipants()));
         }
     }
 
-    private void subscribeToAllPresences() {
-        if (!socketHandler.options()
-                .automaticallySubscribeToPresences()) {
-            return;
-        }
-
-        socketHandler.store()
-                .contacts()
-                .forEach(socketHandler::subscribeToPresence);
-    }
-
-    private void handleRecentMessagesListener(HistorySync history) {
-        history.conversations()
-                .forEach(this::updateChatMessages);
-        historyCache.forEach(cached -> socketHandler.onChatRecentMessages(cached, !history.conversations()
-                .contains(cached)));
-        historyCache.removeIf(entry -> !history.conversations()
-                .contains(entry));
-    }
-
-    private void updateChatMessages(Chat carrier) {
+    // Only the chats received in the initial bootstrap are reported: a chat is complete once a sync doesn't contain it
+    private boolean completeChatMessages(ContactJid jid, Set<ContactJid> chats) {
+        var last = !chats.contains(jid);
         socketHandler.store()
-                .findChatByJid(carrier.jid())
-                .ifPresentOrElse(chat -> carrier.messages()
-                        .stream()
-                        .map(socketHandler.store()::attribute)
-                        .forEach(chat::addMessage), () -> socketHandler.store().addChat(carrier));
+                .findChatByJid(jid)
+                .ifPresent(chat -> socketHandler.onChatRecentMessages(chat, last));
+        return last;
     }
 
     private void handNewPushName(PushName pushName) {
@@ -885,14 +1075,22 @@ class MessageHandler
 
     public void dispose(){
         retries.clear();
-        groupsCache.invalidateAll();
-        devicesCache.invalidateAll();
+        devicesQueries.clear();
+        historySyncProgress.clear();
         historyCache.clear();
         receivedPushNames.set(false);
         sentInitialPatch.set(false);;
         encodeSemaphore.release();
     }
 
+    private record DevicesQuery(ContactJid user, boolean excludeSelf) {
+
+    }
+
+    private record HistorySyncProgress(int progress, int chunks) {
+
+    }
+
     private record MessageDecodeResult(byte[] message, Throwable error) {
         public boolean hasError() {
             return error != null;
@@ -0,0 +1,238 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.api.PresenceSubscriptionProgress;
+import it.auties.whatsapp.model.chat.Chat;
+import it.auties.whatsapp.model.contact.Contact;
+import it.auties.whatsapp.model.contact.ContactJid;
+import it.auties.whatsapp.model.contact.ContactStatus;
+import it.auties.whatsapp.model.info.MessageInfo;
+
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static it.auties.whatsapp.api.ErrorHandler.Location.UNKNOWN;
+
+class PresenceHandler {
+    private static final long NEW_CONTACT_PRIORITY = Long.MAX_VALUE;
+
+    private final SocketHandler socketHandler;
+    private final Set<ContactJid> subscribed;
+    private final Set<ContactJid> queued;
+    private final PriorityBlockingQueue<PendingSubscription> pending;
+    private final AtomicLong sequence;
+    private final AtomicBoolean draining;
+    private final AtomicBoolean scheduled;
+    private final Map<PresenceKey, ContactStatus> updates;
+    private final AtomicBoolean tick;
+    private double tokens;
+    private long lastRefill;
+
+    protected PresenceHandler(SocketHandler socketHandler) {
+        this.socketHandler = socketHandler;
+        this.subscribed = ConcurrentHashMap.newKeySet();
+        this.queued = ConcurrentHashMap.newKeySet();
+        this.pending = new PriorityBlockingQueue<>(11, PendingSubscription.COMPARATOR);
+        this.sequence = new AtomicLong();
+        this.draining = new AtomicBoolean();
+        this.scheduled = new AtomicBoolean();
+        this.tokens = socketHandler.options()
+                .presenceSubscriptionsBurst();
+        this.lastRefill = System.nanoTime();
+        this.updates = new ConcurrentHashMap<>();
+        this.tick = new AtomicBoolean();
+    }
+
+    protected void update(ContactJid chatJid, ContactJid participantJid, ContactStatus status) {
+        var interval = socketHandler.options()
+                .presenceUpdatesInterval();
+        if (interval.isZero()) {
+            CompletableFuture.runAsync(() -> {
+                synchronized (updates) {
+                    applyUpdate(new PresenceKey(chatJid, participantJid), status);
+                }
+            });
+            return;
+        }
+
+        updates.put(new PresenceKey(chatJid, participantJid), status);
+        if (!tick.compareAndSet(false, true)) {
+            return;
+        }
+
+        CompletableFuture.delayedExecutor(interval.toMillis(), TimeUnit.MILLISECONDS)
+                .execute(this::drainUpdates);
+    }
+
+    // Updates are removed one by one, so an update that arrives while draining is either applied now or on the next tick
+    private void drainUpdates() {
+        synchronized (updates) {
+            tick.set(false);
+            try {
+                updates.keySet()
+                        .forEach(key -> {
+                            var status = updates.remove(key);
+                            if (status != null) {
+                                applyUpdate(key, status);
+                            }
+                        });
+            } catch (Throwable throwable) {
+                socketHandler.errorHandler()
+                        .handleFailure(UNKNOWN, throwable);
+            }
+        }
+    }
+
+    private void applyUpdate(PresenceKey key, ContactStatus status) {
+        socketHandler.store()
+                .findContactByJid(key.participantJid())
+                .ifPresent(contact -> applyUpdate(key.chatJid(), contact, status));
+    }
+
+    private void applyUpdate(ContactJid chatJid, Contact contact, ContactStatus status) {
+        if (status == contact.lastKnownPresence()) {
+            return;
+        }
+
+        contact.lastKnownPresence(status);
+        contact.lastSeen(ZonedDateTime.now());
+        socketHandler.store()
+                .findChatByJid(chatJid)
+                .ifPresent(chat -> {
+                    chat.presences()
+                            .put(contact.jid(), status);
+                    socketHandler.onUpdateChatPresence(status, contact, chat);
+                });
+    }
+
+    protected void subscribeToChats() {
+        socketHandler.store()
+                .chats()
+                .stream()
+                .filter(chat -> chat.jid()
+                        .hasServer(ContactJid.Server.WHATSAPP))
+                .forEach(chat -> enqueue(chat.jid(), findPriority(chat)));
+    }
+
+    protected void subscribeToNewContact(ContactJid jid) {
+        enqueue(jid, NEW_CONTACT_PRIORITY);
+    }
+
+    protected void onSubscribed(ContactJid jid) {
+        subscribed.add(jid.toUserJid());
+    }
+
+    private long findPriority(Chat chat) {
+        return chat.lastMessage()
+                .map(MessageInfo::timestamp)
+                .orElse(0L);
+    }
+
+    private void enqueue(ContactJid jid, long priority) {
+        var userJid = jid.toUserJid();
+        if (subscribed.contains(userJid) || !queued.add(userJid)) {
+            return;
+        }
+
+        pending.add(new PendingSubscription(userJid, priority, sequence.getAndIncrement()));
+        drain();
+    }
+
+    private void drain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            while (!pending.isEmpty() && socketHandler.state() == SocketState.CONNECTED && acquireToken()) {
+                var next = pending.poll();
+                if (next == null) {
+                    break;
+                }
+
+                queued.remove(next.jid());
+                if (subscribed.add(next.jid())) {
+                    socketHandler.subscribeToPresence(next.jid());
+                }
+            }
+        } catch (Throwable throwable) {
+            socketHandler.errorHandler()
+                    .handleFailure(UNKNOWN, throwable);
+        } finally {
+            draining.set(false);
+        }
+
+        if (pending.isEmpty() || socketHandler.state() != SocketState.CONNECTED) {
+            return;
+        }
+
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        CompletableFuture.delayedExecutor(findTokenDelay(), TimeUnit.NANOSECONDS)
+                .execute(() -> {
+                    scheduled.set(false);
+                    drain();
+                });
+    }
+
+    private synchronized boolean acquireToken() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+
+        tokens--;
+        return true;
+    }
+
+    private synchronized long findTokenDelay() {
+        refill();
+        return tokens >= 1 ?
+                0 :
+                (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate());
+    }
+
+    private void refill() {
+        var now = System.nanoTime();
+        var burst = Math.max(1, socketHandler.options()
+                .presenceSubscriptionsBurst());
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate() / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+
+    private double rate() {
+        return Math.max(1, socketHandler.options()
+                .presenceSubscriptionsPerSecond());
+    }
+
+    protected PresenceSubscriptionProgress progress() {
+        return new PresenceSubscriptionProgress(subscribed.size(), pending.size());
+    }
+
+    protected void dispose() {
+        subscribed.clear();
+        queued.clear();
+        pending.clear();
+        updates.clear();
+    }
+
+    private record PresenceKey(ContactJid chatJid, ContactJid participantJid) {
+
+    }
+
+    private record PendingSubscription(ContactJid jid, long priority, long sequence) {
+        private static final Comparator<PendingSubscription> COMPARATOR = Comparator.comparingLong(
+                        PendingSubscription::priority)
+                .reversed()
+                .thenComparingLong(PendingSubscription::sequence);
+    }
+}
@@ -0,0 +1,126 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.model.contact.ContactJid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.lang.System.Logger.Level.WARNING;
+
+class ReceiptHandler {
+    private static final long FLUSH_TIMEOUT = 5;
+
+    private final SocketHandler socketHandler;
+    private final Map<ReceiptKey, ReceiptBatch> batches;
+
+    protected ReceiptHandler(SocketHandler socketHandler) {
+        this.socketHandler = socketHandler;
+        this.batches = new ConcurrentHashMap<>();
+    }
+
+    protected void send(ContactJid jid, ContactJid participant, String id, String type) {
+        var window = socketHandler.options()
+                .receiptsBatchWindow();
+        if (window.isZero() || socketHandler.options()
+                .receiptsBatchSize() <= 1) {
+            socketHandler.sendReceipt(jid, participant, List.of(id), type);
+            return;
+        }
+
+        // A batch is removed from the map while its lock is held, so a closed batch is retried at most once
+        var key = new ReceiptKey(jid, participant, type);
+        while (true) {
+            var batch = batches.computeIfAbsent(key, this::createBatch);
+            synchronized (batch) {
+                if (batch.closed) {
+                    continue;
+                }
+
+                batch.ids.add(id);
+                if (batch.ids.size() < socketHandler.options()
+                        .receiptsBatchSize()) {
+                    return;
+                }
+            }
+
+            flush(key, batch);
+            return;
+        }
+    }
+
+    private ReceiptBatch createBatch(ReceiptKey key) {
+        var batch = new ReceiptBatch();
+        var window = socketHandler.options()
+                .receiptsBatchWindow();
+        CompletableFuture.delayedExecutor(window.toMillis(), TimeUnit.MILLISECONDS)
+                .execute(() -> flush(key, batch));
+        return batch;
+    }
+
+    private CompletableFuture<Void> flush(ReceiptKey key, ReceiptBatch batch) {
+        List<String> ids;
+        synchronized (batch) {
+            if (batch.closed) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            batch.closed = true;
+            ids = List.copyOf(batch.ids);
+            batches.remove(key, batch);
+        }
+
+        if (!isWritable()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return socketHandler.sendReceipt(key.jid(), key.participant(), ids, key.type());
+    }
+
+    // If the connection was dropped by Whatsapp, the pending receipts cannot be sent anymore
+    private boolean isWritable() {
+        var session = socketHandler.session();
+        return socketHandler.state() == SocketState.CONNECTED && session != null && session.isOpen();
+    }
+
+    protected CompletableFuture<Void> flush() {
+        var futures = batches.entrySet()
+                .stream()
+                .map(entry -> flush(entry.getKey(), entry.getValue()))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures);
+    }
+
+    // The messages whose receipts are pending were already acknowledged, so they must be flushed while the socket is still writable
+    // This runs while the socket is being closed, so a failure is only logged: reporting it could reconnect the socket
+    protected void awaitFlush() {
+        try {
+            flush().get(FLUSH_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread()
+                    .interrupt();
+        } catch (ExecutionException | TimeoutException exception) {
+            var logger = System.getLogger("ReceiptHandler");
+            logger.log(WARNING, "Cannot flush the pending receipts", exception);
+        }
+    }
+
+    protected void dispose() {
+        awaitFlush();
+        batches.clear();
+    }
+
+    private record ReceiptKey(ContactJid jid, ContactJid participant, String type) {
+
+    }
+
+    private static final class ReceiptBatch {
+        private final List<String> ids = new ArrayList<>();
+        private boolean closed;
+    }
+}
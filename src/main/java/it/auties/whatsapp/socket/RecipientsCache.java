@@ -0,0 +1,192 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.api.CacheStats;
+import it.auties.whatsapp.model.contact.ContactJid;
+import it.auties.whatsapp.model.request.Node;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static it.auties.whatsapp.api.ErrorHandler.Location.UNKNOWN;
+
+class RecipientsCache {
+    private final SocketHandler socketHandler;
+    private final Map<ContactJid, Long> groupsUpdates;
+    private final Map<String, Long> devicesUpdates;
+    private final Set<Object> refreshing;
+    private final LongAdder groupsHits;
+    private final LongAdder groupsMisses;
+    private final LongAdder devicesHits;
+    private final LongAdder devicesMisses;
+
+    protected RecipientsCache(SocketHandler socketHandler) {
+        this.socketHandler = socketHandler;
+        this.groupsUpdates = new ConcurrentHashMap<>();
+        this.devicesUpdates = new ConcurrentHashMap<>();
+        this.refreshing = ConcurrentHashMap.newKeySet();
+        this.groupsHits = new LongAdder();
+        this.groupsMisses = new LongAdder();
+        this.devicesHits = new LongAdder();
+        this.devicesMisses = new LongAdder();
+    }
+
+    protected Optional<List<ContactJid>> findGroupParticipants(ContactJid group) {
+        var result = socketHandler.store()
+                .groupsParticipants()
+                .get(group);
+        (result == null ? groupsMisses : groupsHits).increment();
+        return Optional.ofNullable(result);
+    }
+
+    protected List<ContactJid> putGroupParticipants(ContactJid group, List<ContactJid> participants) {
+        var result = List.copyOf(participants);
+        socketHandler.store()
+                .groupsParticipants()
+                .put(group, result);
+        groupsUpdates.put(group, System.nanoTime());
+        return result;
+    }
+
+    protected boolean isGroupStale(ContactJid group) {
+        return isStale(groupsUpdates.get(group));
+    }
+
+    // Requests are deduplicated so that a stale group is refreshed only once, even if many messages are sent to it
+    protected void refreshGroup(ContactJid group, Supplier<CompletableFuture<?>> query) {
+        if (!refreshing.add(group)) {
+            return;
+        }
+
+        query.get()
+                .whenCompleteAsync((ignored, throwable) -> onRefreshed(List.of(group), throwable));
+    }
+
+    protected Optional<List<ContactJid>> findDevices(String user) {
+        var result = socketHandler.store()
+                .devices()
+                .get(user);
+        (result == null ? devicesMisses : devicesHits).increment();
+        return Optional.ofNullable(result);
+    }
+
+    protected void putDevices(Map<String, List<ContactJid>> devices) {
+        var now = System.nanoTime();
+        devices.forEach((user, userDevices) -> {
+            socketHandler.store()
+                    .devices()
+                    .put(user, List.copyOf(userDevices));
+            devicesUpdates.put(user, now);
+        });
+    }
+
+    protected boolean isDeviceStale(String user) {
+        return isStale(devicesUpdates.get(user));
+    }
+
+    protected void refreshDevices(List<ContactJid> contacts, Function<List<ContactJid>, CompletableFuture<?>> query) {
+        var missing = contacts.stream()
+                .filter(contact -> refreshing.add(contact.user()))
+                .toList();
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        var keys = missing.stream()
+                .map(ContactJid::user)
+                .toList();
+        query.apply(missing)
+                .whenCompleteAsync((ignored, throwable) -> onRefreshed(keys, throwable));
+    }
+
+    private void onRefreshed(List<?> keys, Throwable throwable) {
+        keys.forEach(refreshing::remove);
+        if (throwable == null) {
+            return;
+        }
+
+        socketHandler.errorHandler()
+                .handleFailure(UNKNOWN, throwable);
+    }
+
+    // Entries that were loaded from a previous session have no update time, so they are refreshed the first time they are used
+    private boolean isStale(Long lastUpdate) {
+        var interval = socketHandler.options()
+                .recipientsCacheRefreshInterval();
+        return lastUpdate == null || System.nanoTime() - lastUpdate >= interval.toNanos();
+    }
+
+    protected void onGroupNotification(ContactJid group, Node notification) {
+        var participants = socketHandler.store()
+                .groupsParticipants();
+        if (!participants.containsKey(group)) {
+            return;
+        }
+
+        var action = notification.findNode()
+                .orElse(null);
+        if (action == null) {
+            return;
+        }
+
+        switch (action.description()) {
+            case "add" -> updateGroupParticipants(group, action, true);
+            case "remove", "leave" -> updateGroupParticipants(group, action, false);
+            case "promote", "demote", "subject", "description", "announcement", "not_announcement", "locked",
+                    "unlocked", "ephemeral", "not_ephemeral", "picture" -> {
+            }
+            default -> invalidateGroup(group);
+        }
+    }
+
+    private void updateGroupParticipants(ContactJid group, Node action, boolean add) {
+        var changed = action.findNodes("participant")
+                .stream()
+                .map(participant -> participant.attributes()
+                        .getJid("jid"))
+                .flatMap(Optional::stream)
+                .toList();
+        if (changed.isEmpty()) {
+            invalidateGroup(group);
+            return;
+        }
+
+        socketHandler.store()
+                .groupsParticipants()
+                .computeIfPresent(group, (ignored, participants) -> {
+                    var results = new LinkedHashSet<>(participants);
+                    if (add) {
+                        results.addAll(changed);
+                    } else {
+                        changed.forEach(results::remove);
+                    }
+
+                    return List.copyOf(results);
+                });
+    }
+
+    protected void invalidateGroup(ContactJid group) {
+        socketHandler.store()
+                .groupsParticipants()
+                .remove(group);
+        groupsUpdates.remove(group);
+    }
+
+    protected void invalidateDevices(ContactJid user) {
+        socketHandler.store()
+                .devices()
+                .remove(user.user());
+        devicesUpdates.remove(user.user());
+    }
+
+    protected CacheStats groupsStats() {
+        return new CacheStats(groupsHits.sum(), groupsMisses.sum());
+    }
+
+    protected CacheStats devicesStats() {
+        return new CacheStats(devicesHits.sum(), devicesMisses.sum());
+    }
+}
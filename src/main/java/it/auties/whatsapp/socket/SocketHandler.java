@@ -1,6 +1,8 @@
 package it.auties.whatsapp.socket;
 
+import it.auties.whatsapp.api.CacheStats;
 import it.auties.whatsapp.api.DisconnectReason;
+import it.auties.whatsapp.api.PresenceSubscriptionProgress;
 import it.auties.whatsapp.api.SocketEvent;
 import it.auties.whatsapp.api.Whatsapp;
 import it.auties.whatsapp.api.Whatsapp.Options;
@@ -83,10 +85,24 @@ public class SocketHandler
     @NonNull
     private final AppStateHandler appStateHandler;
 
+    @NonNull
+    private final ReceiptHandler receiptHandler;
+
+    @NonNull
+    private final PresenceHandler presenceHandler;
+
+    @NonNull
+    @Getter(AccessLevel.PROTECTED)
+    private final RecipientsCache recipientsCache;
+
     @NonNull
     @Getter
     private final Options options;
 
+    @NonNull
+    @Getter
+    private final MediaTransferService mediaTransfers;
+
     @NonNull
     @Getter(AccessLevel.PROTECTED)
     private final FailureHandler errorHandler;
@@ -113,6 +129,9 @@ public class SocketHandler
 
     public SocketHandler(@NonNull Whatsapp whatsapp, @NonNull Options options, @NonNull Store store,
             @NonNull Keys keys) {
+        Validate.isTrue(options.preKeysBatchSize() > 0, "Invalid pre keys batch size: %s", options.preKeysBatchSize());
+        Validate.isTrue(options.preKeysLowWatermark() >= 0, "Invalid pre keys low watermark: %s",
+                        options.preKeysLowWatermark());
         this.whatsapp = whatsapp;
         this.options = options;
         this.store = store;
@@ -123,22 +142,29 @@ public class SocketHandler
         this.streamHandler = new StreamHandler(this);
         this.messageHandler = new MessageHandler(this);
         this.appStateHandler = new AppStateHandler(this);
+        this.receiptHandler = new ReceiptHandler(this);
+        this.presenceHandler = new PresenceHandler(this);
+        this.recipientsCache = new RecipientsCache(this);
         this.errorHandler = new FailureHandler(this);
+        this.mediaTransfers = new MediaTransferService(options.mediaTransfersConcurrency());
+        store.mediaTransfers(mediaTransfers);
         this.listenersService = Executors.newScheduledThreadPool(10);
         if (options.automaticallySubscribeToPresences()) {
             store().listeners()
-                    .add((OnNewContact) whatsapp::subscribeToPresence);
+                    .add((OnNewContact) contact -> presenceHandler.subscribeToNewContact(contact.jid()));
         }
 
         getRuntime().addShutdownHook(new Thread(() -> onShutdown(false)));
     }
 
     private void onShutdown(boolean reconnect) {
+        receiptHandler.dispose();
         keys.dispose();
         store.dispose();
         streamHandler.dispose();
         appStateHandler.dispose();
         messageHandler.dispose();
+        presenceHandler.dispose();
         listenersService.shutdownNow();
         if (reconnect) {
             return;
@@ -154,6 +180,8 @@ public class SocketHandler
         var newId = KeyHelper.registrationId();
         this.keys = Keys.random(newId, options.defaultSerialization());
         this.store = Store.random(newId, options.defaultSerialization());
+        mediaTransfers.clearUploads();
+        store.mediaTransfers(mediaTransfers);
         store.listeners()
                 .addAll(oldListeners);
         onDisconnected(DisconnectReason.LOGGED_OUT);
@@ -241,6 +269,7 @@ public class SocketHandler
 
     public CompletableFuture<Void> disconnect(boolean reconnect) {
         try {
+            receiptHandler.awaitFlush();
             state(reconnect ?
                           SocketState.RECONNECTING :
                           SocketState.DISCONNECTED);
@@ -315,6 +344,10 @@ public class SocketHandler
         return appStateHandler.push(request);
     }
 
+    public CompletableFuture<Void> pushPatches(Collection<PatchRequest> requests) {
+        return appStateHandler.push(requests);
+    }
+
     public CompletableFuture<Void> pullInitialPatches() {
         return appStateHandler.pull(true, PatchType.values());
     }
@@ -332,6 +365,10 @@ public class SocketHandler
         return messageHandler.encode(info, metadata);
     }
 
+    protected void consumePreKey() {
+        streamHandler.consumePreKey();
+    }
+
     public CompletableFuture<Node> sendQuery(String method, String category, Node... body) {
         return sendQuery(null, Server.WHATSAPP.toJid(), method, category, null, body);
     }
@@ -423,10 +460,35 @@ public class SocketHandler
     }
 
     public CompletableFuture<Void> subscribeToPresence(ContactJidProvider jid) {
+        presenceHandler.onSubscribed(jid.toJid());
         var node = Node.ofAttributes("presence", Map.of("to", jid.toJid(), "type", "subscribe"));
         return sendWithNoResponse(node);
     }
 
+    protected void queuePresenceUpdate(ContactJid chatJid, ContactJid participantJid, ContactStatus status) {
+        presenceHandler.update(chatJid, participantJid, status);
+    }
+
+    protected void subscribeToAllPresences() {
+        if (!options.automaticallySubscribeToPresences()) {
+            return;
+        }
+
+        presenceHandler.subscribeToChats();
+    }
+
+    public PresenceSubscriptionProgress presenceSubscriptionProgress() {
+        return presenceHandler.progress();
+    }
+
+    public CacheStats groupsCacheStats() {
+        return recipientsCache.groupsStats();
+    }
+
+    public CacheStats devicesCacheStats() {
+        return recipientsCache.devicesStats();
+    }
+
     private List<Node> parseQueryResult(Node result) {
         return result.findNodes("usync")
                 .stream()
@@ -457,9 +519,10 @@ public class SocketHandler
         sendWithNoResponse(receipt);
     }
 
-    public void sendReceipt(ContactJid jid, ContactJid participant, List<String> messages, String type) {
+    public CompletableFuture<Void> sendReceipt(ContactJid jid, ContactJid participant, List<String> messages,
+            String type) {
         if (messages.isEmpty()) {
-            return;
+            return completedFuture(null);
         }
 
         var attributes = Attributes.of()
@@ -469,7 +532,11 @@ public class SocketHandler
                 .put("type", type, Objects::nonNull)
                 .put("participant", participant, Objects::nonNull, value -> !Objects.equals(jid, value));
         var receipt = Node.ofChildren("receipt", attributes.map(), toMessagesNode(messages));
-        sendWithNoResponse(receipt);
+        return sendWithNoResponse(receipt);
+    }
+
+    protected void queueReceipt(ContactJid jid, ContactJid participant, String message, String type) {
+        receiptHandler.send(jid, participant, message, type);
     }
 
     private List<Node> toMessagesNode(List<String> messages) {
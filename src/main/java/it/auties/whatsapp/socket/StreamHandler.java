@@ -19,12 +19,12 @@ import it.auties.whatsapp.model.info.MessageInfo;
 import it.auties.whatsapp.model.info.MessageInfo.StubType;
 import it.auties.whatsapp.model.media.MediaConnection;
 import it.auties.whatsapp.model.message.model.MessageKey;
+import it.auties.whatsapp.model.message.model.MessageReceipt;
 import it.auties.whatsapp.model.message.model.MessageStatus;
 import it.auties.whatsapp.model.privacy.PrivacySettingType;
 import it.auties.whatsapp.model.privacy.PrivacySettingValue;
 import it.auties.whatsapp.model.request.Attributes;
 import it.auties.whatsapp.model.request.Node;
-import it.auties.whatsapp.model.request.NodeHandler;
 import it.auties.whatsapp.model.response.ContactStatusResponse;
 import it.auties.whatsapp.model.signal.auth.DeviceIdentity;
 import it.auties.whatsapp.model.signal.auth.SignedDeviceIdentity;
@@ -40,11 +40,11 @@ import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static it.auties.whatsapp.api.ErrorHandler.Location.*;
@@ -59,12 +59,15 @@ class StreamHandler
         implements JacksonProvider {
     private static final byte[] MESSAGE_HEADER = {6, 0};
     private static final byte[] SIGNATURE_HEADER = {6, 1};
-    private static final int REQUIRED_PRE_KEYS_SIZE = 5;
-    private static final int PRE_KEYS_UPLOAD_CHUNK = 30;
     private static final int PING_INTERVAL = 30;
 
     private final SocketHandler socketHandler;
 
+    private final AtomicInteger availablePreKeys = new AtomicInteger();
+
+    private final AtomicBoolean uploadingPreKeys = new AtomicBoolean();
+    private final AtomicBoolean checkingPreKeys = new AtomicBoolean();
+
     @Getter(AccessLevel.PROTECTED)
     private ScheduledExecutorService pingService;
 
@@ -103,41 +106,20 @@ class StreamHandler
     }
 
     private void digestChatState(Node node) {
-        CompletableFuture.runAsync(() -> {
-            var updateType = node.attributes()
-                    .getOptionalString("type")
-                    .or(() -> node.findNode()
-                            .map(Node::description))
-                    .orElse("available");
-            var chatJid = node.attributes()
-                    .getJid("from")
-                    .orElseThrow(() -> new NoSuchElementException("Missing from in chat state update"));
-            var participantJid = node.attributes()
-                    .getJid("participant")
-                    .orElse(chatJid);
-            socketHandler.store()
-                    .findContactByJid(participantJid)
-                    .ifPresent(contact -> updateContactPresence(chatJid, updateType, contact));
-        });
-    }
-
-    private void updateContactPresence(ContactJid chatJid, String updateType, Contact contact) {
+        var updateType = node.attributes()
+                .getOptionalString("type")
+                .or(() -> node.findNode()
+                        .map(Node::description))
+                .orElse("available");
+        var chatJid = node.attributes()
+                .getJid("from")
+                .orElseThrow(() -> new NoSuchElementException("Missing from in chat state update"));
+        var participantJid = node.attributes()
+                .getJid("participant")
+                .orElse(chatJid);
         var status = ContactStatus.of(updateType)
                 .orElse(ContactStatus.AVAILABLE);
-        if (status == contact.lastKnownPresence()) {
-            return;
-        }
-
-
-        contact.lastKnownPresence(status);
-        contact.lastSeen(ZonedDateTime.now());
-        socketHandler.store()
-                .findChatByJid(chatJid)
-                .ifPresent(chat -> {
-                    chat.presences()
-                            .put(contact.jid(), status);
-                    socketHandler.onUpdateChatPresence(status, contact, chat);
-                });
+        socketHandler.queuePresenceUpdate(chatJid, participantJid, status);
     }
 
     private void digestReceipt(Node node) {
@@ -188,33 +170,53 @@ class StreamHandler
                 .collect(Collectors.toList());
         messageIds.add(node.attributes()
                                .getRequiredString("id"));
-        messageIds.stream()
-                .map(messageId -> chat == null ?
-                        socketHandler.store()
-                                .findStatusById(messageId) :
-                        socketHandler.store()
-                                .findMessageById(chat, messageId))
-                .flatMap(Optional::stream)
-                .forEach(message -> updateMessageStatus(status, participant, message, chat));
-    }
-
-    private void updateMessageStatus(MessageStatus status, Contact participant, MessageInfo message, Chat chat) {
+        var participantsCount = chat == null ?
+                0 :
+                chat.participants()
+                        .size();
+        var timestamp = Clock.now();
+        for (var messageId : messageIds) {
+            var message = chat == null ?
+                    socketHandler.store()
+                            .findStatusById(messageId) :
+                    chat.findMessageById(messageId);
+            message.ifPresent(info -> updateMessageStatus(status, participant, info, chat, participantsCount, timestamp));
+        }
+    }
+
+    private void updateMessageStatus(MessageStatus status, Contact participant, MessageInfo message, Chat chat,
+                                     int participantsCount, long timestamp) {
         message.status(status);
-        var container = status == MessageStatus.READ ? message.receipt().readJids() : message.receipt().deliveredJids();
-        container.add(participant != null ? participant.jid() : message.senderJid());
-        if(chat == null || participant == null || chat.participants().size() == container.size()){
+        var jid = participant != null ?
+                participant.jid() :
+                message.senderJid();
+        var receipt = message.receipt();
+        var count = status == MessageStatus.READ ?
+                addReadJid(receipt, jid) :
+                addDeliveredJid(receipt, jid);
+        if(chat == null || participant == null || participantsCount == count){
             if(status == MessageStatus.READ) {
-                message.receipt()
-                        .readTimestamp(Clock.now());
+                receipt.readTimestamp(timestamp);
             }else if(status == MessageStatus.PLAYED) {
-                message.receipt()
-                        .playedTimestamp(Clock.now());
+                receipt.playedTimestamp(timestamp);
             }
         }
 
         socketHandler.onMessageStatus(status, participant, message, chat);
     }
 
+    private int addReadJid(MessageReceipt receipt, ContactJid jid) {
+        receipt.addReadJid(jid);
+        return receipt.readJids()
+                .size();
+    }
+
+    private int addDeliveredJid(MessageReceipt receipt, ContactJid jid) {
+        receipt.addDeliveredJid(jid);
+        return receipt.deliveredJids()
+                .size();
+    }
+
     private void digestCall(Node node) {
         var call = node.children()
                 .peekFirst();
@@ -250,9 +252,16 @@ class StreamHandler
             case "account_sync" -> handleAccountSyncNotification(node);
             case "encrypt" -> handleEncryptNotification(node);
             case "picture" -> handlePictureNotification(node);
+            case "devices" -> handleDevicesNotification(node);
         }
     }
 
+    private void handleDevicesNotification(Node node) {
+        node.attributes()
+                .getJid("from")
+                .ifPresent(socketHandler.recipientsCache()::invalidateDevices);
+    }
+
     private void handlePictureNotification(Node node) {
         var fromJid = node.attributes()
                 .getJid("from")
@@ -281,6 +290,10 @@ class StreamHandler
     }
 
     private void handleGroupNotification(Node node) {
+        node.attributes()
+                .getJid("from")
+                .ifPresent(group -> socketHandler.recipientsCache()
+                        .onGroupNotification(group, node));
         node.findNode()
                 .map(Node::description)
                 .flatMap(StubType::of)
@@ -326,11 +339,7 @@ class StreamHandler
                 .orElseThrow(() -> new NoSuchElementException("Missing count in notification"))
                 .attributes()
                 .getLong("value");
-        if (keysSize >= REQUIRED_PRE_KEYS_SIZE) {
-            return;
-        }
-
-        sendPreKeys();
+        handlePreKeysCount(keysSize);
     }
 
     private void handleAccountSyncNotification(Node node) {
@@ -460,6 +469,8 @@ class StreamHandler
         if (!socketHandler.keys()
                 .hasPreKeys()) {
             sendPreKeys();
+        } else {
+            checkPreKeys();
         }
 
         createPingTask();
@@ -475,36 +486,11 @@ class StreamHandler
                                                               .defaultSerialization())
                 .attributeStore(socketHandler.store())
                 .thenRun(socketHandler::onChats)
+                .thenRun(socketHandler::subscribeToAllPresences)
                 .exceptionallyAsync(exception -> socketHandler.errorHandler()
                         .handleFailure(MESSAGE, exception));
         socketHandler.onContacts();
         socketHandler.pullInitialPatches();
-        if (!socketHandler.options()
-                .automaticallySubscribeToPresences()) {
-            return;
-        }
-
-        var delayedExecutor = CompletableFuture.delayedExecutor(5, TimeUnit.SECONDS);
-        subscribeToAllPresences(delayedExecutor);
-    }
-
-    private void subscribeToAllPresences(Executor delayedExecutor) {
-        var future = CompletableFuture.runAsync(() -> socketHandler.store()
-                .contacts()
-                .forEach(socketHandler::subscribeToPresence), delayedExecutor);
-        socketHandler.store()
-                .addNodeHandler(NodeHandler.of(node -> node.hasDescription("message") && node.attributes()
-                        .hasKey("offline")))
-                .thenRunAsync(() -> rescheduleSubscriptionFuture(delayedExecutor, future));
-    }
-
-    private void rescheduleSubscriptionFuture(Executor delayedExecutor, CompletableFuture<Void> future) {
-        if (future.isDone()) {
-            return;
-        }
-
-        future.cancel(true);
-        subscribeToAllPresences(delayedExecutor);
     }
 
     private void createPingTask() {
@@ -630,7 +616,7 @@ class StreamHandler
         }
 
         socketHandler.sendQuery("set", "w:m", Node.of("media_conn"))
-                .thenApplyAsync(MediaConnection::of)
+                .thenApplyAsync(node -> MediaConnection.of(node, socketHandler.mediaTransfers()))
                 .thenApplyAsync(result -> socketHandler.store()
                         .mediaConnection(result))
                 .exceptionallyAsync(throwable -> socketHandler.errorHandler()
@@ -670,23 +656,80 @@ class StreamHandler
         socketHandler.sendQuery("set", "passive", Node.of("active"));
     }
 
+    protected void consumePreKey() {
+        if (availablePreKeys.decrementAndGet() > socketHandler.options()
+                .preKeysLowWatermark()) {
+            return;
+        }
+
+        checkPreKeys();
+    }
+
+    // Only one count query or upload runs at a time: the pre keys consumed in the meanwhile are accounted for by its result
+    // Failures are not fatal, the count is checked again the next time a pre key is consumed
+    private void checkPreKeys() {
+        if (uploadingPreKeys.get() || !checkingPreKeys.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            socketHandler.sendQuery("get", "encrypt", Node.of("count"))
+                    .thenAcceptAsync(result -> handlePreKeysCount(result.findNode("count")
+                            .orElseThrow(() -> new NoSuchElementException("Missing count in response"))
+                            .attributes()
+                            .getLong("value")))
+                    .exceptionallyAsync(throwable -> socketHandler.errorHandler()
+                            .handleFailure(UNKNOWN, throwable))
+                    .thenRunAsync(() -> checkingPreKeys.set(false));
+        } catch (Throwable throwable) {
+            checkingPreKeys.set(false);
+            socketHandler.errorHandler()
+                    .handleFailure(UNKNOWN, throwable);
+        }
+    }
+
+    private void handlePreKeysCount(long keysSize) {
+        availablePreKeys.set((int) keysSize);
+        if (keysSize > socketHandler.options()
+                .preKeysLowWatermark()) {
+            return;
+        }
+
+        sendPreKeys();
+    }
+
     private void sendPreKeys() {
-        var startId = socketHandler.keys()
-                .lastPreKeyId() + 1;
-        var preKeys = IntStream.range(startId, startId + PRE_KEYS_UPLOAD_CHUNK)
-                .mapToObj(SignalPreKeyPair::random)
-                .peek(socketHandler.keys()::addPreKey)
-                .map(SignalPreKeyPair::toNode)
-                .toList();
-        socketHandler.sendQuery("set", "encrypt", Node.of("registration", BytesHelper.intToBytes(socketHandler.keys()
-                                                                                                         .id(), 4)),
-                                Node.of("type", SignalSpecification.KEY_BUNDLE_TYPE), Node.of("identity",
-                                                                                              socketHandler.keys()
-                                                                                                      .identityKeyPair()
-                                                                                                      .publicKey()),
-                                ofChildren("list", preKeys), socketHandler.keys()
-                                        .signedKeyPair()
-                                        .toNode());
+        if (!uploadingPreKeys.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            var batchSize = socketHandler.options()
+                    .preKeysBatchSize();
+            var preKeys = socketHandler.keys()
+                    .generatePreKeys(batchSize)
+                    .stream()
+                    .map(SignalPreKeyPair::toNode)
+                    .toList();
+            socketHandler.sendQuery("set", "encrypt", Node.of("registration",
+                                                              BytesHelper.intToBytes(socketHandler.keys()
+                                                                                             .id(), 4)),
+                                    Node.of("type", SignalSpecification.KEY_BUNDLE_TYPE), Node.of("identity",
+                                                                                                  socketHandler.keys()
+                                                                                                          .identityKeyPair()
+                                                                                                          .publicKey()),
+                                    ofChildren("list", preKeys), socketHandler.keys()
+                                            .signedKeyPair()
+                                            .toNode())
+                    .thenRunAsync(() -> availablePreKeys.addAndGet(batchSize))
+                    .exceptionallyAsync(throwable -> socketHandler.errorHandler()
+                            .handleFailure(UNKNOWN, throwable))
+                    .thenRunAsync(() -> uploadingPreKeys.set(false));
+        } catch (Throwable throwable) {
+            uploadingPreKeys.set(false);
+            socketHandler.errorHandler()
+                    .handleFailure(UNKNOWN, throwable);
+        }
     }
 
     private void generateQrCode(Node node, Node container) {
@@ -0,0 +1,192 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.model.media.MediaDimensions;
+import lombok.experimental.UtilityClass;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.StreamSupport;
+
+/**
+ * A utility class used to decode, scale and encode images.
+ * Images are decoded with a subsampling factor that brings them as close as possible to the requested size, so the full
+ * resolution image is never held in memory.
+ * Readers and writers are reused by each thread and the work is executed on a bounded executor.
+ */
+@UtilityClass
+class ImageScaler {
+    private static final int THREADS = Runtime.getRuntime()
+            .availableProcessors();
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+    private static final List<ImageReaderSpi> READER_PROVIDERS = findReaderProviders();
+    private static final ThreadLocal<Map<ImageReaderSpi, ImageReader>> READERS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, ImageWriter>> WRITERS = ThreadLocal.withInitial(HashMap::new);
+
+    private ThreadPoolExecutor createExecutor() {
+        var executor = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                                              ScalerThread::new);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private List<ImageReaderSpi> findReaderProviders() {
+        var providers = IIORegistry.getDefaultInstance()
+                .getServiceProviders(ImageReaderSpi.class, true);
+        return StreamSupport.stream(((Iterable<ImageReaderSpi>) () -> providers).spliterator(), false)
+                .toList();
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, EXECUTOR);
+    }
+
+    Optional<MediaDimensions> getDimensions(byte[] image) {
+        return read(image, (reader, ignored) -> new MediaDimensions(reader.getWidth(0), reader.getHeight(0)));
+    }
+
+    Optional<byte[]> scale(byte[] image, int size, boolean crop, String format, float quality) {
+        if (Thread.currentThread() instanceof ScalerThread) {
+            return scaleNow(image, size, crop, format, quality);
+        }
+
+        return submit(() -> scaleNow(image, size, crop, format, quality)).join();
+    }
+
+    private Optional<byte[]> scaleNow(byte[] image, int size, boolean crop, String format, float quality) {
+        return read(image, (reader, input) -> {
+            var width = reader.getWidth(0);
+            var height = reader.getHeight(0);
+            var side = Math.min(width, height);
+            var param = reader.getDefaultReadParam();
+            if (crop) {
+                param.setSourceRegion(new Rectangle(0, 0, side, side));
+            }
+
+            var subsampling = Math.max(1, side / size);
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            var decoded = reader.read(0, param);
+            return write(resize(decoded, size, format), format, quality);
+        });
+    }
+
+    private <T> Optional<T> read(byte[] image, ReaderFunction<T> function) {
+        try (var input = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            var reader = findReader(input);
+            if (reader == null) {
+                return Optional.empty();
+            }
+
+            try {
+                reader.setInput(input, true, true);
+                return Optional.ofNullable(function.apply(reader, input));
+            } finally {
+                reader.reset();
+            }
+        } catch (IOException | RuntimeException exception) {
+            return Optional.empty();
+        }
+    }
+
+    private ImageReader findReader(ImageInputStream input) throws IOException {
+        for (var provider : READER_PROVIDERS) {
+            if (provider.canDecodeInput(input)) {
+                return READERS.get()
+                        .computeIfAbsent(provider, ImageScaler::createReader);
+            }
+        }
+
+        return null;
+    }
+
+    private ImageReader createReader(ImageReaderSpi provider) {
+        try {
+            return provider.createReaderInstance();
+        } catch (IOException exception) {
+            throw new IllegalStateException("Cannot create image reader", exception);
+        }
+    }
+
+    private BufferedImage resize(BufferedImage image, int size, String format) {
+        var type = isJpeg(format) ?
+                BufferedImage.TYPE_INT_RGB :
+                BufferedImage.TYPE_INT_ARGB;
+        var resized = new BufferedImage(size, size, type);
+        var graphics = resized.createGraphics();
+        try {
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.drawImage(image, 0, 0, size, size, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return resized;
+    }
+
+    private byte[] write(BufferedImage image, String format, float quality) throws IOException {
+        var writer = WRITERS.get()
+                .computeIfAbsent(format.toLowerCase(), ImageScaler::createWriter);
+        var output = new ByteArrayOutputStream();
+        try (var stream = ImageIO.createImageOutputStream(output)) {
+            var param = writer.getDefaultWriteParam();
+            if (quality > 0 && param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.reset();
+        }
+
+        return output.toByteArray();
+    }
+
+    private ImageWriter createWriter(String format) {
+        var writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IllegalArgumentException("Unsupported image format: %s".formatted(format));
+        }
+
+        return writers.next();
+    }
+
+    private boolean isJpeg(String format) {
+        return format.equalsIgnoreCase("jpg") || format.equalsIgnoreCase("jpeg");
+    }
+
+    private interface ReaderFunction<T> {
+        T apply(ImageReader reader, ImageInputStream input) throws IOException;
+    }
+
+    private static final class ScalerThread
+            extends Thread {
+        private ScalerThread(Runnable runnable) {
+            super(runnable, "image-scaler");
+            setDaemon(true);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package it.auties.whatsapp.util;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import it.auties.linkpreview.LinkPreview;
+import it.auties.linkpreview.LinkPreviewMedia;
+import it.auties.linkpreview.LinkPreviewResult;
+import lombok.NonNull;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * A resolver that generates link previews off the calling thread.
+ * Previews and thumbnails are cached by canonical url, so the same link is fetched only once while it's in the cache.
+ * Thumbnails are downloaded with a request timeout.
+ * The metadata of a link is fetched by a library that doesn't accept a timeout, so each fetch runs as an interruptible
+ * task that is cancelled when its deadline expires: its concurrency permit is released at the deadline, so a website
+ * that doesn't answer cannot prevent other previews from being generated.
+ */
+public final class LinkPreviewResolver {
+    private static volatile LinkPreviewResolver defaultResolver;
+
+    private static final int DEFAULT_CONCURRENCY = 8;
+    private static final int DEFAULT_CACHE_SIZE = 1_000;
+    private static final Duration DEFAULT_CACHE_EXPIRATION = Duration.ofHours(1);
+    private static final Duration FETCH_TIMEOUT = Duration.ofSeconds(10);
+    private static final Pattern SCHEME_PATTERN = Pattern.compile("^https?://.+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DOMAIN_PATTERN = Pattern.compile("^(?:[a-z0-9](?:[a-z0-9-]*[a-z0-9])?\\.)+[a-z]{2,}(?:[:/?#].*)?$",
+                                                                  Pattern.CASE_INSENSITIVE);
+    private static final String TRAILING_PUNCTUATION = ".,;:!?)]}>\"'";
+
+    private final HttpClient client;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService fetchers;
+    private final Semaphore fetchPermits;
+    private final Queue<Runnable> pendingFetches;
+    private final AsyncCache<URI, Optional<LinkPreviewResult>> results;
+    private final AsyncCache<URI, Optional<byte[]>> thumbnails;
+
+    /**
+     * Constructs a new resolver with the default concurrency and cache size
+     */
+    public LinkPreviewResolver() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Constructs a new resolver
+     *
+     * @param concurrency the maximum number of previews that can be generated at the same time
+     * @param cacheSize   the maximum number of previews and thumbnails that are cached
+     */
+    public LinkPreviewResolver(int concurrency, int cacheSize) {
+        Validate.isTrue(concurrency > 0, "Invalid concurrency: %s", concurrency);
+        Validate.isTrue(cacheSize > 0, "Invalid cache size: %s", cacheSize);
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60L, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<>(), this::createThread);
+        executor.allowCoreThreadTimeOut(true);
+        this.fetchers = Executors.newCachedThreadPool(this::createThread);
+        this.fetchPermits = new Semaphore(concurrency);
+        this.pendingFetches = new ConcurrentLinkedQueue<>();
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(FETCH_TIMEOUT)
+                .executor(executor)
+                .build();
+        this.results = createCache(cacheSize);
+        this.thumbnails = createCache(cacheSize);
+    }
+
+    /**
+     * Returns the resolver shared by all sessions
+     *
+     * @return a non-null resolver
+     */
+    public static LinkPreviewResolver defaultResolver() {
+        var cached = defaultResolver;
+        if (cached != null) {
+            return cached;
+        }
+
+        synchronized (LinkPreviewResolver.class) {
+            if (defaultResolver == null) {
+                defaultResolver = new LinkPreviewResolver();
+            }
+
+            return defaultResolver;
+        }
+    }
+
+    private Thread createThread(Runnable runnable) {
+        var thread = new Thread(runnable, "link-preview");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private <T> AsyncCache<URI, T> createCache(int size) {
+        return Caffeine.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(DEFAULT_CACHE_EXPIRATION)
+                .executor(executor)
+                .buildAsync();
+    }
+
+    /**
+     * Generates a preview for the first link in a text
+     *
+     * @param text the non-null text to search
+     * @return a non-null future, completed with an empty optional if the text has no link or no preview is available
+     */
+    public CompletableFuture<Optional<Preview>> resolve(@NonNull String text) {
+        for (var token : text.split("\\s+")) {
+            var match = trimPunctuation(token);
+            var uri = parseUri(match);
+            if (uri.isPresent()) {
+                return resolve(match, uri.get());
+            }
+        }
+
+        return CompletableFuture.completedFuture(Optional.empty());
+    }
+
+    /**
+     * Generates a preview for a link
+     *
+     * @param uri the non-null link
+     * @return a non-null future, completed with an empty optional if no preview is available
+     */
+    public CompletableFuture<Optional<Preview>> resolve(@NonNull URI uri) {
+        return canonicalize(uri).map(canonical -> resolve(uri.toString(), canonical))
+                .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()));
+    }
+
+    private CompletableFuture<Optional<Preview>> resolve(String text, URI uri) {
+        return results.get(uri, (key, ignored) -> fetchResult(key))
+                .thenCompose(result -> result.map(value -> createPreview(text, value))
+                        .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty())));
+    }
+
+    private CompletableFuture<Optional<LinkPreviewResult>> fetchResult(URI uri) {
+        var result = new CompletableFuture<Optional<LinkPreviewResult>>();
+        pendingFetches.add(() -> startFetch(uri, result));
+        drainFetches();
+        return result;
+    }
+
+    private void startFetch(URI uri, CompletableFuture<Optional<LinkPreviewResult>> result) {
+        var task = fetchers.submit(() -> result.complete(createResult(uri)));
+        result.orTimeout(FETCH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((ignored, throwable) -> {
+                    task.cancel(true);
+                    fetchPermits.release();
+                    drainFetches();
+                });
+    }
+
+    private void drainFetches() {
+        while (!pendingFetches.isEmpty()) {
+            if (!fetchPermits.tryAcquire()) {
+                return;
+            }
+
+            var next = pendingFetches.poll();
+            if (next == null) {
+                fetchPermits.release();
+                continue;
+            }
+
+            next.run();
+        }
+    }
+
+    private Optional<LinkPreviewResult> createResult(URI uri) {
+        try {
+            return LinkPreview.createPreview(uri);
+        } catch (Throwable throwable) {
+            return Optional.empty();
+        }
+    }
+
+    private CompletableFuture<Optional<Preview>> createPreview(String text, LinkPreviewResult result) {
+        var image = result.images()
+                .stream()
+                .reduce(LinkPreviewResolver::compareDimensions)
+                .map(LinkPreviewMedia::uri);
+        return image.map(this::thumbnail)
+                .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
+                .thenApply(thumbnail -> Optional.of(new Preview(text, result, thumbnail.orElse(null))));
+    }
+
+    private static LinkPreviewMedia compareDimensions(LinkPreviewMedia first, LinkPreviewMedia second) {
+        return first.width() * first.height() >= second.width() * second.height() ?
+                first :
+                second;
+    }
+
+    /**
+     * Downloads the thumbnail of a preview
+     *
+     * @param uri the link of the thumbnail, can be null
+     * @return a non-null future, completed with an empty optional if the thumbnail cannot be downloaded
+     */
+    public CompletableFuture<Optional<byte[]>> thumbnail(URI uri) {
+        var canonical = uri == null ?
+                Optional.<URI>empty() :
+                canonicalize(uri);
+        if (canonical.isEmpty()) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        return thumbnails.get(canonical.get(), (key, ignored) -> fetchThumbnail(key));
+    }
+
+    private CompletableFuture<Optional<byte[]>> fetchThumbnail(URI uri) {
+        var request = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(FETCH_TIMEOUT)
+                .GET()
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> response.statusCode() == 200 ?
+                        Optional.of(response.body()) :
+                        Optional.<byte[]>empty())
+                .exceptionally(ignored -> Optional.empty());
+    }
+
+    private String trimPunctuation(String token) {
+        var end = token.length();
+        while (end > 0 && TRAILING_PUNCTUATION.indexOf(token.charAt(end - 1)) != -1) {
+            end--;
+        }
+
+        return token.substring(0, end);
+    }
+
+    private Optional<URI> parseUri(String token) {
+        if (SCHEME_PATTERN.matcher(token)
+                .matches()) {
+            return toUri(token);
+        }
+
+        return DOMAIN_PATTERN.matcher(token)
+                .matches() ?
+                toUri("https://%s".formatted(token)) :
+                Optional.empty();
+    }
+
+    private Optional<URI> toUri(String value) {
+        try {
+            return canonicalize(new URI(value));
+        } catch (URISyntaxException exception) {
+            return Optional.empty();
+        }
+    }
+
+    private Optional<URI> canonicalize(URI uri) {
+        var scheme = uri.getScheme();
+        var host = uri.getHost();
+        if (scheme == null || host == null) {
+            return Optional.empty();
+        }
+
+        var normalizedScheme = scheme.toLowerCase(Locale.ROOT);
+        if (!normalizedScheme.equals("http") && !normalizedScheme.equals("https")) {
+            return Optional.empty();
+        }
+
+        var port = uri.getPort() == -1 || uri.getPort() == defaultPort(normalizedScheme) ?
+                "" :
+                ":%s".formatted(uri.getPort());
+        var path = Optional.ofNullable(uri.normalize()
+                                               .getRawPath())
+                .filter(value -> !value.isEmpty())
+                .orElse("/");
+        var query = uri.getRawQuery() == null ?
+                "" :
+                "?%s".formatted(uri.getRawQuery());
+        try {
+            return Optional.of(new URI("%s://%s%s%s%s".formatted(normalizedScheme, host.toLowerCase(Locale.ROOT), port,
+                                                                  path, query)));
+        } catch (URISyntaxException exception) {
+            return Optional.empty();
+        }
+    }
+
+    private int defaultPort(String scheme) {
+        return scheme.equals("https") ?
+                443 :
+                80;
+    }
+
+    /**
+     * A generated preview
+     *
+     * @param text      the text that was matched as a link
+     * @param result    the metadata of the link
+     * @param thumbnail the thumbnail of the link, can be null
+     */
+    public record Preview(String text, LinkPreviewResult result, byte[] thumbnail) {
+
+    }
+}
@@ -7,69 +7,167 @@ import it.auties.whatsapp.listener.Listener;
 import it.auties.whatsapp.listener.RegisterListener;
 import lombok.experimental.UtilityClass;
 
-import java.lang.reflect.InvocationTargetException;
-import java.util.List;
-import java.util.NoSuchElementException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 
+/**
+ * A utility class used to find and initialize the listeners annotated with {@link RegisterListener}.
+ * The listeners are read from the indexes generated by {@link it.auties.whatsapp.listener.RegisterListenerProcessor} at
+ * compile time, while the jars and directories that don't contain an index, for example because they were compiled
+ * without the processor, are scanned.
+ * The lookup is executed only once for the whole JVM and the constructors are cached as method handles, so the cost of
+ * registering listeners doesn't depend on the number of connections.
+ */
 @UtilityClass
 public class ListenerScanner {
+    /**
+     * The location of the index of listeners generated at compile time
+     */
+    public static final String LISTENERS_INDEX = "META-INF/whatsappweb4j/listeners";
+
+    private static final MethodType LISTENER_TYPE = MethodType.methodType(Listener.class, Whatsapp.class);
+    private static final ClassValue<MethodHandle> CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            return createConstructor(type);
+        }
+    };
+    private static volatile List<Class<?>> listeners;
+
     public List<Listener> scan(Whatsapp whatsapp) {
-        try (var scanner = createScanner()) {
-            return scanner.getClassesWithAnnotation(RegisterListener.class)
-                    .loadClasses()
-                    .stream()
-                    .map(clazz -> initialize(clazz, whatsapp))
+        return findListeners().stream()
+                .map(clazz -> initialize(clazz, whatsapp))
+                .toList();
+    }
+
+    private List<Class<?>> findListeners() {
+        var cached = listeners;
+        if (cached != null) {
+            return cached;
+        }
+
+        synchronized (ListenerScanner.class) {
+            if (listeners == null) {
+                listeners = findAllListeners();
+            }
+
+            return listeners;
+        }
+    }
+
+    private List<Class<?>> findAllListeners() {
+        var results = new LinkedHashSet<Class<?>>(readIndex());
+        results.addAll(scanClasspath());
+        return List.copyOf(results);
+    }
+
+    private List<Class<?>> readIndex() {
+        try {
+            var loader = findClassLoader();
+            var resources = Collections.list(loader.getResources(LISTENERS_INDEX));
+            var names = new LinkedHashSet<String>();
+            for (var resource : resources) {
+                names.addAll(readIndex(resource));
+            }
+
+            var results = new ArrayList<Class<?>>();
+            for (var name : names) {
+                results.add(Class.forName(name, false, loader));
+            }
+
+            return results;
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot read listeners index", exception);
+        } catch (ClassNotFoundException exception) {
+            throw new IllegalArgumentException("Cannot read listeners index: missing listener", exception);
+        }
+    }
+
+    private List<String> readIndex(URL resource) throws IOException {
+        try (var reader = new BufferedReader(new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8))) {
+            return reader.lines()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty())
                     .toList();
         }
     }
 
+    private ClassLoader findClassLoader() {
+        return Objects.requireNonNullElse(Thread.currentThread()
+                                                  .getContextClassLoader(), ListenerScanner.class.getClassLoader());
+    }
+
+    private List<Class<?>> scanClasspath() {
+        try (var scanner = createScanner()) {
+            return List.copyOf(scanner.getClassesWithAnnotation(RegisterListener.class)
+                                       .loadClasses());
+        }
+    }
+
+    // Jars and directories that contain an index were already read, so they are not scanned again
     private ScanResult createScanner() {
         return new ClassGraph().enableClassInfo()
                 .enableAnnotationInfo()
+                .rejectClasspathElementsContainingResourcePath(LISTENERS_INDEX)
                 .scan();
     }
 
     private Listener initialize(Class<?> listener, Whatsapp whatsapp) {
+        try {
+            return (Listener) CONSTRUCTORS.get(listener)
+                    .invokeExact(whatsapp);
+        } catch (RuntimeException | Error exception) {
+            throw exception;
+        } catch (Throwable throwable) {
+            throw new IllegalArgumentException(
+                    "Cannot initialize listener at %s: an error occurred while initializing the class(check its constructor)".formatted(
+                            listener.getName()), throwable);
+        }
+    }
+
+    private MethodHandle createConstructor(Class<?> listener) {
         Validate.isTrue(Listener.class.isAssignableFrom(listener),
                         "Cannot initialize listener at %s: cannot register classes that don't implement WhatsappListener",
                         listener.getName(), IllegalArgumentException.class);
+        ListenerScanner.class.getModule()
+                .addReads(listener.getModule());
         try {
-            return (Listener) listener.getConstructor(createParameters(whatsapp))
-                    .newInstance(createArguments(whatsapp));
-        } catch (NoSuchMethodException noArgsConstructorException) {
-            if (whatsapp != null) {
-                return initialize(listener, null);
+            var constructor = findPublicConstructor(listener, Whatsapp.class);
+            if (constructor.isPresent()) {
+                return MethodHandles.lookup()
+                        .unreflectConstructor(constructor.get())
+                        .asType(LISTENER_TYPE);
             }
 
-            throw new NoSuchElementException(
+            var noArgsConstructor = findPublicConstructor(listener).orElseThrow(() -> new NoSuchElementException(
                     "Cannot initialize listener at %s: no applicable constructor was found. Create a public no args constructor or a Whatsapp constructor".formatted(
-                            listener.getName()), noArgsConstructorException);
+                            listener.getName())));
+            var handle = MethodHandles.lookup()
+                    .unreflectConstructor(noArgsConstructor);
+            return MethodHandles.dropArguments(handle, 0, Whatsapp.class)
+                    .asType(LISTENER_TYPE);
         } catch (IllegalAccessException accessException) {
             throw new IllegalArgumentException(
                     "Cannot initialize listener at %s: inaccessible module. Mark module %s as open in order to allow registration".formatted(
                             listener.getName(), listener.getModule()
                                     .getName()), accessException);
-        } catch (InvocationTargetException invocationException) {
-            throw new IllegalArgumentException(
-                    "Cannot initialize listener at %s: an error occurred while initializing the class(check its static initializers)".formatted(
-                            listener.getName()), invocationException);
-        } catch (InstantiationException instantiationException) {
-            throw new IllegalArgumentException(
-                    "Cannot initialize listener at %s: an error occurred while initializing the class(check its constructor)".formatted(
-                            listener.getName()), instantiationException);
         }
-
-    }
-
-    private Object[] createArguments(Whatsapp whatsapp) {
-        return whatsapp == null ?
-                new Object[0] :
-                new Object[]{whatsapp};
     }
 
-    private Class<?>[] createParameters(Whatsapp whatsapp) {
-        return whatsapp == null ?
-                new Class[0] :
-                new Class[]{Whatsapp.class};
+    private Optional<Constructor<?>> findPublicConstructor(Class<?> listener, Class<?>... parameters) {
+        try {
+            return Optional.of(listener.getConstructor(parameters));
+        } catch (NoSuchMethodException exception) {
+            return Optional.empty();
+        }
     }
 }
@@ -0,0 +1,129 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.crypto.AesCbc;
+import it.auties.whatsapp.crypto.Hmac;
+import it.auties.whatsapp.crypto.Sha256;
+import it.auties.whatsapp.exception.HmacValidationException;
+import it.auties.whatsapp.model.media.MediaKeys;
+import lombok.NonNull;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * An input stream that decrypts an encrypted media while it's being read.
+ * The encrypted sha256 and the mac of the media are computed incrementally and validated when the end of the media is reached.
+ */
+final class MediaDecryptionStream
+        extends InputStream {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream source;
+    private final Cipher cipher;
+    private final Mac mac;
+    private final MessageDigest digest;
+    private final byte[] expectedSha256;
+    private final long expectedSize;
+    private final byte[] input;
+    private int held;
+    private byte[] output;
+    private int outputPosition;
+    private long size;
+    private boolean finished;
+
+    MediaDecryptionStream(@NonNull InputStream source, @NonNull MediaKeys keys, byte[] expectedSha256,
+            long expectedSize) {
+        this.source = source;
+        this.cipher = AesCbc.createCipher(Cipher.DECRYPT_MODE, keys.iv(), keys.cipherKey());
+        this.mac = Hmac.createSha256(keys.macKey());
+        mac.update(keys.iv());
+        this.digest = Sha256.createDigest();
+        this.expectedSha256 = expectedSha256;
+        this.expectedSize = expectedSize;
+        this.input = new byte[BUFFER_SIZE + Medias.MEDIA_MAC_LENGTH];
+        this.output = new byte[0];
+    }
+
+    @Override
+    public int read() throws IOException {
+        var buffer = new byte[1];
+        return read(buffer, 0, 1) == -1 ?
+                -1 :
+                buffer[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte @NonNull [] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        while (outputPosition >= output.length) {
+            if (finished) {
+                return -1;
+            }
+
+            fill();
+        }
+
+        var read = Math.min(length, output.length - outputPosition);
+        System.arraycopy(output, outputPosition, buffer, offset, read);
+        outputPosition += read;
+        return read;
+    }
+
+    private void fill() throws IOException {
+        var read = source.read(input, held, input.length - held);
+        if (read == -1) {
+            finish();
+            return;
+        }
+
+        held += read;
+        var encrypted = held - Medias.MEDIA_MAC_LENGTH;
+        if (encrypted <= 0) {
+            return;
+        }
+
+        digest.update(input, 0, encrypted);
+        mac.update(input, 0, encrypted);
+        setOutput(cipher.update(input, 0, encrypted));
+        System.arraycopy(input, encrypted, input, 0, Medias.MEDIA_MAC_LENGTH);
+        held = Medias.MEDIA_MAC_LENGTH;
+    }
+
+    private void finish() {
+        try {
+            finished = true;
+            Validate.isTrue(held == Medias.MEDIA_MAC_LENGTH, "Cannot decode media: missing mac", SecurityException.class);
+            digest.update(input, 0, held);
+            Validate.isTrue(Arrays.equals(digest.digest(), expectedSha256),
+                            "Cannot decode media: Invalid sha256 signature", SecurityException.class);
+            var hmac = Arrays.copyOf(mac.doFinal(), Medias.MEDIA_MAC_LENGTH);
+            Validate.isTrue(Arrays.equals(hmac, Arrays.copyOf(input, held)), "media_decryption",
+                            HmacValidationException.class);
+            setOutput(cipher.doFinal());
+            Validate.isTrue(expectedSize <= 0 || expectedSize == size, "Cannot decode media: invalid size");
+        } catch (GeneralSecurityException exception) {
+            throw new SecurityException("Cannot decode media", exception);
+        }
+    }
+
+    private void setOutput(byte[] decrypted) {
+        this.output = decrypted == null ?
+                new byte[0] :
+                decrypted;
+        this.outputPosition = 0;
+        this.size += output.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,170 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.model.media.MediaDimensions;
+import lombok.experimental.UtilityClass;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A pure java parser for the metadata of the most common media containers.
+ * Only the boxes and pages that describe the media are read, the samples are skipped.
+ */
+@UtilityClass
+class MediaProbe {
+    private static final int BOX_HEADER_LENGTH = 8;
+    private static final int LARGE_BOX_HEADER_LENGTH = 16;
+    private static final int OGG_HEADER_LENGTH = 27;
+    private static final byte[] OGG_CAPTURE_PATTERN = "OggS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OPUS_HEADER = "OpusHead".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VORBIS_HEADER = "\u0001vorbis".getBytes(StandardCharsets.US_ASCII);
+    private static final int OPUS_SAMPLE_RATE = 48000;
+
+    Optional<Integer> getDuration(byte[] media) {
+        try {
+            return getMp4Duration(media).or(() -> getOggDuration(media));
+        } catch (IndexOutOfBoundsException | BufferUnderflowException exception) {
+            return Optional.empty();
+        }
+    }
+
+    Optional<MediaDimensions> getDimensions(byte[] media) {
+        try {
+            return getMp4Dimensions(media);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException exception) {
+            return Optional.empty();
+        }
+    }
+
+    private Optional<Integer> getMp4Duration(byte[] media) {
+        return findMovie(media).flatMap(movie -> findBoxes(movie, "mvhd").stream()
+                        .findFirst())
+                .flatMap(MediaProbe::getMovieDuration);
+    }
+
+    private Optional<Integer> getMovieDuration(ByteBuffer header) {
+        var version = header.get(0);
+        var timescale = Integer.toUnsignedLong(header.getInt(version == 1 ?
+                                                                    20 :
+                                                                    12));
+        var duration = version == 1 ?
+                header.getLong(24) :
+                Integer.toUnsignedLong(header.getInt(16));
+        return timescale <= 0 || duration < 0 ?
+                Optional.empty() :
+                Optional.of((int) (duration / timescale));
+    }
+
+    private Optional<MediaDimensions> getMp4Dimensions(byte[] media) {
+        return findMovie(media).stream()
+                .flatMap(movie -> findBoxes(movie, "trak").stream())
+                .flatMap(track -> findBoxes(track, "tkhd").stream())
+                .map(MediaProbe::getTrackDimensions)
+                .flatMap(Optional::stream)
+                .findFirst();
+    }
+
+    private Optional<MediaDimensions> getTrackDimensions(ByteBuffer header) {
+        var offset = header.get(0) == 1 ?
+                88 :
+                76;
+        var width = header.getInt(offset) >>> 16;
+        var height = header.getInt(offset + 4) >>> 16;
+        return width <= 0 || height <= 0 ?
+                Optional.empty() :
+                Optional.of(new MediaDimensions(width, height));
+    }
+
+    private Optional<ByteBuffer> findMovie(byte[] media) {
+        return findBoxes(ByteBuffer.wrap(media), "moov").stream()
+                .findFirst();
+    }
+
+    private List<ByteBuffer> findBoxes(ByteBuffer parent, String type) {
+        var results = new ArrayList<ByteBuffer>();
+        var buffer = parent.duplicate();
+        while (buffer.remaining() >= BOX_HEADER_LENGTH) {
+            var start = buffer.position();
+            var size = Integer.toUnsignedLong(buffer.getInt());
+            var name = readBoxType(buffer);
+            var headerLength = BOX_HEADER_LENGTH;
+            if (size == 1) {
+                size = buffer.getLong();
+                headerLength = LARGE_BOX_HEADER_LENGTH;
+            } else if (size == 0) {
+                size = buffer.limit() - start;
+            }
+
+            if (size < headerLength || size > buffer.limit() - start) {
+                break;
+            }
+
+            if (name.equals(type)) {
+                results.add(buffer.slice(start + headerLength, (int) size - headerLength));
+            }
+
+            buffer.position((int) (start + size));
+        }
+
+        return results;
+    }
+
+    private String readBoxType(ByteBuffer buffer) {
+        var type = new byte[4];
+        buffer.get(type);
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+
+    private Optional<Integer> getOggDuration(byte[] media) {
+        if (media.length < OGG_HEADER_LENGTH || !matches(media, 0, OGG_CAPTURE_PATTERN)) {
+            return Optional.empty();
+        }
+
+        var buffer = ByteBuffer.wrap(media)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        var packet = OGG_HEADER_LENGTH + Byte.toUnsignedInt(media[OGG_HEADER_LENGTH - 1]);
+        long sampleRate;
+        long preSkip;
+        if (matches(media, packet, OPUS_HEADER)) {
+            sampleRate = OPUS_SAMPLE_RATE;
+            preSkip = Short.toUnsignedLong(buffer.getShort(packet + 10));
+        } else if (matches(media, packet, VORBIS_HEADER)) {
+            sampleRate = Integer.toUnsignedLong(buffer.getInt(packet + 12));
+            preSkip = 0;
+        } else {
+            return Optional.empty();
+        }
+
+        for (var index = media.length - OGG_HEADER_LENGTH; index >= 0; index--) {
+            if (!matches(media, index, OGG_CAPTURE_PATTERN)) {
+                continue;
+            }
+
+            var granule = buffer.getLong(index + 6);
+            return granule <= preSkip || sampleRate <= 0 ?
+                    Optional.empty() :
+                    Optional.of((int) ((granule - preSkip) / sampleRate));
+        }
+
+        return Optional.empty();
+    }
+
+    private boolean matches(byte[] media, int offset, byte[] pattern) {
+        if (offset < 0 || offset + pattern.length > media.length) {
+            return false;
+        }
+
+        for (var index = 0; index < pattern.length; index++) {
+            if (media[offset + index] != pattern[index]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,413 @@
+package it.auties.whatsapp.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import it.auties.whatsapp.model.media.MediaFile;
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A service that executes media transfers over a shared HTTP/2 client.
+ * The number of concurrent transfers is bounded, failed requests are retried with a jittered exponential backoff and
+ * hosts are ranked by their health so that a failing host is used only when no healthier alternative is available.
+ * The media uploaded through a service are remembered until their media connection expires, so that they aren't
+ * uploaded again: as an upload belongs to the account that made it, a service should never be shared between sessions.
+ */
+public final class MediaTransferService {
+    private static final int DEFAULT_CONCURRENCY = 16;
+    private static final int DEFAULT_ATTEMPTS = 3;
+    private static final Duration DEFAULT_BACKOFF = Duration.ofMillis(500);
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(15);
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final long HOST_RECOVERY_TIME = TimeUnit.MINUTES.toNanos(1);
+    private static final int UPLOADS_MAX_SIZE = 10_000;
+
+    private final HttpClient client;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permits;
+    private final int attempts;
+    private final Duration backoff;
+    private final Map<String, HostHealth> hosts;
+    private final Cache<String, Upload> uploads;
+    private final LongAdder uploadedBytes;
+    private final LongAdder downloadedBytes;
+    private final LongAdder completedTransfers;
+    private final LongAdder failedTransfers;
+    private final long createdAt;
+
+    /**
+     * Constructs a new service with the default concurrency, attempts and backoff
+     */
+    public MediaTransferService() {
+        this(DEFAULT_CONCURRENCY, DEFAULT_ATTEMPTS, DEFAULT_BACKOFF);
+    }
+
+    /**
+     * Constructs a new service with the default attempts and backoff
+     *
+     * @param concurrency the maximum number of transfers that can run at the same time
+     */
+    public MediaTransferService(int concurrency) {
+        this(concurrency, DEFAULT_ATTEMPTS, DEFAULT_BACKOFF);
+    }
+
+    /**
+     * Constructs a new service
+     *
+     * @param concurrency the maximum number of transfers that can run at the same time
+     * @param attempts    the maximum number of attempts for each transfer
+     * @param backoff     the non-null base delay between two attempts, doubled after each failure
+     */
+    public MediaTransferService(int concurrency, int attempts, @NonNull Duration backoff) {
+        Validate.isTrue(concurrency > 0, "Invalid concurrency: %s", concurrency);
+        Validate.isTrue(attempts > 0, "Invalid attempts: %s", attempts);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60L, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<>(), this::createThread);
+        executor.allowCoreThreadTimeOut(true);
+        this.permits = new Semaphore(concurrency, true);
+        this.attempts = attempts;
+        this.backoff = backoff;
+        this.hosts = new ConcurrentHashMap<>();
+        this.uploads = createUploadsCache();
+        this.uploadedBytes = new LongAdder();
+        this.downloadedBytes = new LongAdder();
+        this.completedTransfers = new LongAdder();
+        this.failedTransfers = new LongAdder();
+        this.createdAt = System.nanoTime();
+    }
+
+    private static Cache<String, Upload> createUploadsCache() {
+        return Caffeine.newBuilder()
+                .maximumSize(UPLOADS_MAX_SIZE)
+                .expireAfter(new Expiry<String, Upload>() {
+                    @Override
+                    public long expireAfterCreate(String key, Upload upload, long currentTime) {
+                        return upload.ttl()
+                                .toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Upload upload, long currentTime, long currentDuration) {
+                        return upload.ttl()
+                                .toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Upload upload, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    private Thread createThread(Runnable runnable) {
+        var thread = new Thread(runnable, "media-transfer");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Runs a transfer asynchronously on this service's executor
+     *
+     * @param task the non-null transfer to run
+     * @param <T>  the type of the result
+     * @return a non-null future
+     */
+    public <T> CompletableFuture<T> submit(@NonNull Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    /**
+     * Sends one of the provided equivalent requests, each one targeting a different host.
+     * Requests are tried starting from the healthiest host: if a request fails because of an I/O error or a status code
+     * that suggests a transient failure, the next healthiest host is tried after a jittered backoff.
+     * The transfer slot is released as soon as the response is received: use {@link #stream(List)} if the body is
+     * read after this method returns.
+     *
+     * @param requests the non-null, non-empty list of equivalent requests
+     * @param handler  the non-null body handler
+     * @param <T>      the type of the body
+     * @return a non-null response whose status code is not retryable
+     * @throws IllegalStateException if all the attempts fail
+     */
+    public <T> HttpResponse<T> send(@NonNull List<HttpRequest> requests, @NonNull BodyHandler<T> handler) {
+        return sendWithRetries(requests, request -> sendWithPermit(request, handler));
+    }
+
+    /**
+     * Sends one of the provided equivalent requests like {@link #send(List, BodyHandler)}, but streams the body.
+     * The transfer slot is held until the returned body is closed, so the body must always be closed.
+     *
+     * @param requests the non-null, non-empty list of equivalent requests
+     * @return a non-null response whose status code is not retryable
+     * @throws IllegalStateException if all the attempts fail
+     */
+    public HttpResponse<InputStream> stream(@NonNull List<HttpRequest> requests) {
+        return sendWithRetries(requests, this::streamWithPermit);
+    }
+
+    private <T> HttpResponse<T> sendWithRetries(List<HttpRequest> requests, Sender<T> sender) {
+        Validate.isTrue(!requests.isEmpty(), "Cannot send media request: no hosts");
+        var failures = new ArrayList<Throwable>();
+        for (var attempt = 0; attempt < attempts; attempt++) {
+            var request = selectRequest(requests);
+            var health = findHealth(request);
+            var start = System.nanoTime();
+            try {
+                var response = sender.send(request);
+                if (!isRetryable(response.statusCode())) {
+                    health.onSuccess(System.nanoTime() - start);
+                    completedTransfers.increment();
+                    return response;
+                }
+
+                close(response.body());
+                health.onFailure();
+                failures.add(new IOException("Invalid status code %s from %s".formatted(response.statusCode(),
+                                                                                        request.uri()
+                                                                                                .getHost())));
+            } catch (IOException exception) {
+                health.onFailure();
+                failures.add(exception);
+            }
+
+            if (attempt + 1 < attempts) {
+                sleep(attempt);
+            }
+        }
+
+        failedTransfers.increment();
+        var exception = new IllegalStateException("Cannot send media request: no suitable host found after %s attempts".formatted(attempts));
+        failures.forEach(exception::addSuppressed);
+        throw exception;
+    }
+
+    private <T> HttpResponse<T> sendWithPermit(HttpRequest request, BodyHandler<T> handler) throws IOException {
+        acquirePermit();
+        try {
+            return client.send(request, handler);
+        } catch (InterruptedException exception) {
+            Thread.currentThread()
+                    .interrupt();
+            throw new IOException("Interrupted while sending media request", exception);
+        } finally {
+            permits.release();
+        }
+    }
+
+    // The permit is handed over to the body, which releases it when it's closed
+    private HttpResponse<InputStream> streamWithPermit(HttpRequest request) throws IOException {
+        acquirePermit();
+        var released = new AtomicBoolean();
+        try {
+            return client.send(request, info -> BodySubscribers.mapping(BodySubscribers.ofInputStream(),
+                                                                        body -> new PermitInputStream(body, released)));
+        } catch (InterruptedException exception) {
+            releasePermit(released);
+            Thread.currentThread()
+                    .interrupt();
+            throw new IOException("Interrupted while sending media request", exception);
+        } catch (Throwable throwable) {
+            releasePermit(released);
+            throw throwable;
+        }
+    }
+
+    private void acquirePermit() throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread()
+                    .interrupt();
+            throw new IOException("Interrupted while waiting for a free transfer slot", exception);
+        }
+    }
+
+    private void releasePermit(AtomicBoolean released) {
+        if (released.compareAndSet(false, true)) {
+            permits.release();
+        }
+    }
+
+    private HttpRequest selectRequest(List<HttpRequest> requests) {
+        return requests.stream()
+                .min(Comparator.comparing(this::findHealth, HostHealth.COMPARATOR))
+                .orElseThrow();
+    }
+
+    private HostHealth findHealth(HttpRequest request) {
+        return hosts.computeIfAbsent(request.uri()
+                                             .getHost(), ignored -> new HostHealth());
+    }
+
+    private boolean isRetryable(int statusCode) {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+
+    private void close(Object body) {
+        try {
+            if (body instanceof Closeable closeable) {
+                closeable.close();
+            }
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    private void sleep(int attempt) {
+        try {
+            var delay = backoff.toMillis() << attempt;
+            Thread.sleep(delay + ThreadLocalRandom.current()
+                    .nextLong(delay + 1));
+        } catch (InterruptedException exception) {
+            Thread.currentThread()
+                    .interrupt();
+        }
+    }
+
+    Optional<MediaFile> findUpload(String key) {
+        return Optional.ofNullable(uploads.getIfPresent(key))
+                .map(Upload::file);
+    }
+
+    void cacheUpload(String key, MediaFile file, Duration ttl) {
+        uploads.put(key, new Upload(file, ttl));
+    }
+
+    /**
+     * Forgets the media uploaded through this service, so that they are uploaded again if they are sent.
+     * This method should be called when the account that uses this service changes.
+     */
+    public void clearUploads() {
+        uploads.invalidateAll();
+    }
+
+    void onUpload(long bytes) {
+        uploadedBytes.add(bytes);
+    }
+
+    void onDownload(long bytes) {
+        downloadedBytes.add(bytes);
+    }
+
+    /**
+     * Returns a snapshot of the metrics of this service
+     *
+     * @return a non-null stats object
+     */
+    public Stats stats() {
+        return new Stats(uploadedBytes.sum(), downloadedBytes.sum(), completedTransfers.sum(), failedTransfers.sum(),
+                         executor.getActiveCount(), executor.getQueue()
+                                 .size() + permits.getQueueLength(), Duration.ofNanos(System.nanoTime() - createdAt));
+    }
+
+    /**
+     * A snapshot of the metrics of a {@link MediaTransferService}
+     *
+     * @param uploadedBytes      the number of bytes uploaded
+     * @param downloadedBytes    the number of bytes downloaded
+     * @param completedTransfers the number of requests that completed
+     * @param failedTransfers    the number of requests that failed after exhausting all their attempts
+     * @param activeTransfers    the number of asynchronous transfers that are running
+     * @param queuedTransfers    the number of transfers waiting for a free slot
+     * @param uptime             the time elapsed since the service was created
+     */
+    public record Stats(long uploadedBytes, long downloadedBytes, long completedTransfers, long failedTransfers,
+                        int activeTransfers, int queuedTransfers, Duration uptime) {
+        /**
+         * Returns the average number of bytes transferred per second since the service was created
+         *
+         * @return a non-negative double
+         */
+        public double throughput() {
+            var seconds = uptime.toMillis() / 1000D;
+            return seconds == 0 ?
+                    0 :
+                    (uploadedBytes + downloadedBytes) / seconds;
+        }
+    }
+
+    private record Upload(MediaFile file, Duration ttl) {
+
+    }
+
+    @FunctionalInterface
+    private interface Sender<T> {
+        HttpResponse<T> send(HttpRequest request) throws IOException;
+    }
+
+    private final class PermitInputStream extends FilterInputStream {
+        private final AtomicBoolean released;
+
+        private PermitInputStream(InputStream delegate, AtomicBoolean released) {
+            super(delegate);
+            this.released = released;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                releasePermit(released);
+            }
+        }
+    }
+
+    private static final class HostHealth {
+        private static final Comparator<HostHealth> COMPARATOR = Comparator.comparingInt(HostHealth::failures)
+                .thenComparingDouble(HostHealth::latency);
+
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile double latency;
+        private volatile long lastFailure;
+
+        private int failures() {
+            return System.nanoTime() - lastFailure > HOST_RECOVERY_TIME ?
+                    0 :
+                    failures.get();
+        }
+
+        private double latency() {
+            return latency;
+        }
+
+        private void onSuccess(long elapsed) {
+            failures.set(0);
+            latency = latency == 0 ?
+                    elapsed :
+                    (LATENCY_WEIGHT * elapsed) + ((1 - LATENCY_WEIGHT) * latency);
+        }
+
+        private void onFailure() {
+            failures.incrementAndGet();
+            lastFailure = System.nanoTime();
+        }
+    }
+}
@@ -1,168 +1,506 @@
 package it.auties.whatsapp.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import it.auties.bytes.Bytes;
 import it.auties.whatsapp.crypto.AesCbc;
 import it.auties.whatsapp.crypto.Hmac;
 import it.auties.whatsapp.crypto.Sha256;
-import it.auties.whatsapp.exception.HmacValidationException;
 import it.auties.whatsapp.model.media.*;
 import it.auties.whatsapp.model.message.model.MediaMessageType;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
 
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URLConnection;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 import static java.net.http.HttpRequest.BodyPublishers.ofByteArray;
+import static java.net.http.HttpRequest.BodyPublishers.ofFile;
 import static java.net.http.HttpResponse.BodyHandlers.ofString;
-import static java.util.Optional.empty;
-import static java.util.Optional.of;
 
 @UtilityClass
 public class Medias
         implements JacksonProvider {
     public static final int PROFILE_PIC_SIZE = 640;
+    private static final float PROFILE_PIC_QUALITY = 0.5F;
     public static final String DEFAULT_HOST = "https://mmg.whatsapp.net";
     private static final int THUMBNAIL_SIZE = 32;
     private static final int RANDOM_FILE_NAME_LENGTH = 8;
-    private static final Map<String, Path> CACHE = new ConcurrentHashMap<>();
-
+    static final int MEDIA_MAC_LENGTH = 10;
+    private static final int AES_BLOCK_SIZE = 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SCRATCH_MAX_WEIGHT = 256L * 1024 * 1024;
+    private static final Duration SCRATCH_EXPIRATION = Duration.ofMinutes(10);
+    private static final Cache<String, ScratchEntry> SCRATCH = createScratchCache();
+    private static final Cache<byte[], byte[]> DIGESTS = Caffeine.newBuilder()
+            .weakKeys()
+            .build();
+    private static final MediaTransferService TRANSFERS = new MediaTransferService();
+
+    /**
+     * Downloads an image and converts it to a jpg
+     *
+     * @param imageUri the uri of the image, can be null
+     * @return a non-null optional
+     * @deprecated use {@link LinkPreviewResolver#thumbnail(URI)}, which doesn't block and caches its results
+     */
+    @Deprecated
     public Optional<byte[]> getPreview(URI imageUri) {
+        return LinkPreviewResolver.defaultResolver()
+                .thumbnail(imageUri)
+                .join()
+                .flatMap(bytes -> getImage(bytes, Format.JPG, -1));
+    }
+
+    public MediaFile upload(byte @NonNull [] file, @NonNull MediaMessageType type, MediaConnection mediaConnection) {
+        var fileSha256 = findSha256(file);
+        var cached = findUpload(fileSha256, type, mediaConnection);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        var keys = MediaKeys.random(type.keyName());
+        var output = new ByteArrayOutputStream(file.length + MEDIA_MAC_LENGTH + AES_BLOCK_SIZE);
+        var encrypted = encrypt(Channels.newChannel(new ByteArrayInputStream(file)), keys, output, fileSha256);
+        return upload(encrypted, ofByteArray(output.toByteArray()), type, mediaConnection);
+    }
+
+    public MediaFile upload(@NonNull Path file, @NonNull MediaMessageType type, MediaConnection mediaConnection) {
+        try (var channel = Files.newByteChannel(file)) {
+            return upload(channel, type, mediaConnection);
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot upload media", exception);
+        }
+    }
+
+    public MediaFile upload(@NonNull InputStream file, @NonNull MediaMessageType type,
+            MediaConnection mediaConnection) {
+        return upload(Channels.newChannel(file), type, mediaConnection);
+    }
+
+    // Seekable channels, like files, are hashed in a first pass so that duplicates are found before they are encrypted
+    public MediaFile upload(@NonNull ReadableByteChannel file, @NonNull MediaMessageType type,
+            MediaConnection mediaConnection) {
+        Path encryptedFile = null;
         try {
-            if (imageUri == null) {
-                return Optional.empty();
+            var fileSha256 = file instanceof SeekableByteChannel seekable ?
+                    calculateSha256(seekable) :
+                    null;
+            if (fileSha256 != null) {
+                var cached = findUpload(fileSha256, type, mediaConnection);
+                if (cached.isPresent()) {
+                    return cached.get();
+                }
+            }
+
+            encryptedFile = createTempFile();
+            var keys = MediaKeys.random(type.keyName());
+            EncryptedMedia encrypted;
+            try (var output = Files.newOutputStream(encryptedFile)) {
+                encrypted = encrypt(file, keys, output, fileSha256);
+            }
+
+            if (fileSha256 == null) {
+                var cached = findUpload(encrypted.fileSha256(), type, mediaConnection);
+                if (cached.isPresent()) {
+                    return cached.get();
+                }
             }
 
-            var bytes = imageUri.toURL()
-                    .openConnection()
-                    .getInputStream()
-                    .readAllBytes();
-            return getImage(bytes, Format.JPG, -1);
+            return upload(encrypted, ofFile(encryptedFile), type, mediaConnection);
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot upload media", exception);
+        } finally {
+            deleteFile(encryptedFile);
+        }
+    }
+
+    public CompletableFuture<MediaFile> uploadAsync(byte @NonNull [] file, @NonNull MediaMessageType type,
+            MediaConnection mediaConnection) {
+        return transfers(mediaConnection).submit(() -> upload(file, type, mediaConnection));
+    }
+
+    public CompletableFuture<MediaFile> uploadAsync(@NonNull Path file, @NonNull MediaMessageType type,
+            MediaConnection mediaConnection) {
+        return transfers(mediaConnection).submit(() -> upload(file, type, mediaConnection));
+    }
+
+    private MediaFile upload(EncryptedMedia encrypted, BodyPublisher body, MediaMessageType type,
+            MediaConnection mediaConnection) {
+        try {
+            var auth = URLEncoder.encode(mediaConnection.auth(), StandardCharsets.UTF_8);
+            var token = Base64.getUrlEncoder()
+                    .withoutPadding()
+                    .encodeToString(encrypted.fileEncSha256());
+            var requests = getHosts(mediaConnection).stream()
+                    .map(host -> createUploadRequest(body, type, auth, token, host))
+                    .toList();
+            var transfers = transfers(mediaConnection);
+            var response = transfers.send(requests, ofString());
+            Validate.isTrue(response.statusCode() == 200, "Cannot upload media: invalid status code %s",
+                            response.statusCode());
+            var upload = JSON.readValue(response.body(), MediaUpload.class);
+            transfers.onUpload(encrypted.fileLength());
+            var result = new MediaFile(encrypted.fileSha256(), encrypted.fileEncSha256(), encrypted.keys()
+                    .mediaKey(), encrypted.fileLength(), upload.directPath(), upload.url());
+            cacheUpload(result, type, mediaConnection);
+            return result;
         } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot upload media", exception);
+        }
+    }
+
+    private byte[] calculateSha256(SeekableByteChannel channel) throws IOException {
+        var start = channel.position();
+        var digest = Sha256.createDigest();
+        var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+
+        channel.position(start);
+        return digest.digest();
+    }
+
+    // Byte arrays are hashed only once, even if they are used for an upload and to compute a thumbnail, dimensions or a duration
+    private byte[] findSha256(byte[] media) {
+        return DIGESTS.get(media, Sha256::calculate);
+    }
+
+    // Uploads are remembered only by the services owned by a session, as the shared one could be used by many accounts
+    private Optional<MediaFile> findUpload(byte[] fileSha256, MediaMessageType type, MediaConnection mediaConnection) {
+        var transfers = transfers(mediaConnection);
+        if (transfers == TRANSFERS) {
             return Optional.empty();
         }
+
+        return transfers.findUpload(createUploadKey(fileSha256, type));
+    }
+
+    private void cacheUpload(MediaFile file, MediaMessageType type, MediaConnection mediaConnection) {
+        var transfers = transfers(mediaConnection);
+        if (transfers == TRANSFERS) {
+            return;
+        }
+
+        var expiration = mediaConnection.timestamp() + TimeUnit.SECONDS.toMillis(mediaConnection.ttl());
+        var ttl = Duration.ofMillis(expiration - System.currentTimeMillis());
+        if (ttl.isNegative() || ttl.isZero()) {
+            return;
+        }
+
+        transfers.cacheUpload(createUploadKey(file.fileSha256(), type), file, ttl);
     }
 
-    public MediaFile upload(byte[] file, MediaMessageType type, MediaConnection mediaConnection) {
-        var client = HttpClient.newHttpClient();
-        var auth = URLEncoder.encode(mediaConnection.auth(), StandardCharsets.UTF_8);
-        var hosts = getHosts(mediaConnection);
-        return hosts.stream()
-                .map(host -> upload(file, type, client, auth, host))
-                .flatMap(Optional::stream)
-                .findFirst()
-                .orElseThrow(() -> new IllegalStateException(
-                        "Cannot upload media: no suitable host found: %s".formatted(hosts)));
+    private String createUploadKey(byte[] fileSha256, MediaMessageType type) {
+        return "%s:%s".formatted(type.name(), Bytes.of(fileSha256)
+                .toHex());
+    }
+
+    private MediaTransferService transfers(MediaConnection mediaConnection) {
+        return mediaConnection == null ?
+                TRANSFERS :
+                mediaConnection.transfers();
     }
 
     private List<String> getHosts(MediaConnection mediaConnection) {
         return Optional.ofNullable(mediaConnection)
                 .map(MediaConnection::hosts)
-                .orElse(List.of(DEFAULT_HOST));
+                .filter(hosts -> !hosts.isEmpty())
+                .orElse(List.of(URI.create(DEFAULT_HOST)
+                                        .getHost()));
     }
 
-    private Optional<MediaFile> upload(byte[] file, MediaMessageType type, HttpClient client, String auth,
+    private HttpRequest createUploadRequest(BodyPublisher body, MediaMessageType type, String auth, String token,
             String host) {
+        var uri = URI.create("https://%s/%s/%s?auth=%s&token=%s".formatted(host, type.path(), token, auth, token));
+        return HttpRequest.newBuilder()
+                .POST(body)
+                .uri(uri)
+                .header("Content-Type", "application/octet-stream")
+                .header("Accept", "application/json")
+                .header("Origin", "https://web.whatsapp.com")
+                .build();
+    }
+
+    private EncryptedMedia encrypt(ReadableByteChannel input, MediaKeys keys, OutputStream output,
+            byte[] knownSha256) {
         try {
-            var fileSha256 = Sha256.calculate(file);
-            var keys = MediaKeys.random(type.keyName());
-            var encryptedMedia = AesCbc.encrypt(keys.iv(), file, keys.cipherKey());
-            var hmac = calculateMac(encryptedMedia, keys);
-            var encrypted = Bytes.of(encryptedMedia)
-                    .append(hmac)
-                    .toByteArray();
-            var fileEncSha256 = Sha256.calculate(encrypted);
-            var token = Base64.getUrlEncoder()
-                    .withoutPadding()
-                    .encodeToString(fileEncSha256);
-            var uri = URI.create("https://%s/%s/%s?auth=%s&token=%s".formatted(host, type.path(), token, auth, token));
-            var request = HttpRequest.newBuilder()
-                    .POST(ofByteArray(encrypted))
-                    .uri(uri)
-                    .header("Content-Type", "application/octet-stream")
-                    .header("Accept", "application/json")
-                    .header("Origin", "https://web.whatsapp.com")
-                    .build();
-            var response = client.send(request, ofString());
-            Validate.isTrue(response.statusCode() == 200, "Invalid status code: %s", response.statusCode());
-            var upload = JSON.readValue(response.body(), MediaUpload.class);
-            return of(new MediaFile(fileSha256, fileEncSha256, keys.mediaKey(), file.length, upload.directPath(),
-                                    upload.url()));
-        } catch (Throwable ignored) {
-            return empty();
+            var fileSha256 = knownSha256 == null ?
+                    Sha256.createDigest() :
+                    null;
+            var fileEncSha256 = Sha256.createDigest();
+            var cipher = AesCbc.createCipher(Cipher.ENCRYPT_MODE, keys.iv(), keys.cipherKey());
+            var mac = Hmac.createSha256(keys.macKey());
+            mac.update(keys.iv());
+            var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            var fileLength = 0L;
+            while (input.read(buffer) != -1) {
+                buffer.flip();
+                if (fileSha256 != null) {
+                    fileSha256.update(buffer.array(), 0, buffer.limit());
+                }
+
+                fileLength += buffer.limit();
+                writeEncrypted(cipher.update(buffer.array(), 0, buffer.limit()), mac, fileEncSha256, output);
+                buffer.clear();
+            }
+
+            writeEncrypted(cipher.doFinal(), mac, fileEncSha256, output);
+            var hmac = Arrays.copyOf(mac.doFinal(), MEDIA_MAC_LENGTH);
+            fileEncSha256.update(hmac);
+            output.write(hmac);
+            return new EncryptedMedia(keys, fileSha256 == null ?
+                    knownSha256 :
+                    fileSha256.digest(), fileEncSha256.digest(), fileLength);
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot encrypt media", exception);
+        } catch (GeneralSecurityException exception) {
+            throw new IllegalStateException("Cannot encrypt media", exception);
         }
     }
 
+    private void writeEncrypted(byte[] encrypted, Mac mac, MessageDigest digest, OutputStream output)
+            throws IOException {
+        if (encrypted == null) {
+            return;
+        }
+
+        mac.update(encrypted);
+        digest.update(encrypted);
+        output.write(encrypted);
+    }
+
     public DownloadResult download(AttachmentProvider provider) {
-        try {
-            Validate.isTrue(provider.mediaUrl() != null || provider.mediaDirectPath() != null,
-                            "Missing url and path from media");
-            var url = Objects.requireNonNullElseGet(provider.mediaUrl(),
-                                                    () -> createMediaUrl(provider.mediaDirectPath()));
-            var client = HttpClient.newHttpClient();
-            var request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .GET()
-                    .build();
-            var response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
-            if (response.statusCode() == HttpURLConnection.HTTP_NOT_FOUND || response.statusCode() == HttpURLConnection.HTTP_GONE) {
+        return download(provider, TRANSFERS);
+    }
+
+    public DownloadResult download(@NonNull AttachmentProvider provider, @NonNull MediaTransferService transfers) {
+        try (var stream = openDownload(provider, transfers).orElse(null)) {
+            if (stream == null) {
                 return DownloadResult.missing();
             }
 
-            var stream = Bytes.of(response.body());
-            var sha256 = Sha256.calculate(stream.toByteArray());
-            Validate.isTrue(Arrays.equals(sha256, provider.mediaEncryptedSha256()),
-                            "Cannot decode media: Invalid sha256 signature", SecurityException.class);
+            var media = stream.readAllBytes();
+            transfers.onDownload(media.length);
+            return DownloadResult.success(media);
+        } catch (Throwable error) {
+            return DownloadResult.error(error);
+        }
+    }
 
-            var encryptedMedia = stream.cut(-10)
-                    .toByteArray();
-            var mediaMac = stream.slice(-10)
-                    .toByteArray();
+    public CompletableFuture<DownloadResult> downloadAsync(@NonNull AttachmentProvider provider) {
+        return downloadAsync(provider, TRANSFERS);
+    }
 
-            var keys = MediaKeys.of(provider.mediaKey(), provider.mediaName());
-            var hmac = calculateMac(encryptedMedia, keys);
-            Validate.isTrue(Arrays.equals(hmac, mediaMac), "media_decryption", HmacValidationException.class);
+    public CompletableFuture<DownloadResult> downloadAsync(@NonNull AttachmentProvider provider,
+            @NonNull MediaTransferService transfers) {
+        return transfers.submit(() -> download(provider, transfers));
+    }
 
-            var decrypted = AesCbc.decrypt(keys.iv(), encryptedMedia, keys.cipherKey());
-            Validate.isTrue(provider.mediaSize() <= 0 || provider.mediaSize() == decrypted.length,
-                            "Cannot decode media: invalid size");
+    public CompletableFuture<DownloadResult> downloadAsync(@NonNull AttachmentProvider provider, @NonNull Path path) {
+        return downloadAsync(provider, path, TRANSFERS);
+    }
 
-            return DownloadResult.success(decrypted);
+    public CompletableFuture<DownloadResult> downloadAsync(@NonNull AttachmentProvider provider, @NonNull Path path,
+            @NonNull MediaTransferService transfers) {
+        return transfers.submit(() -> download(provider, path, transfers));
+    }
+
+    /**
+     * Downloads and decrypts a media into an output stream.
+     * The media is authenticated only when its end is reached: if the validation fails, the result is an error, but
+     * the bytes that were already written to the output stream are not authenticated and must be discarded.
+     *
+     * @param provider the non-null media to download
+     * @param output   the non-null output stream
+     * @return a non-null result
+     * @see Medias#download(AttachmentProvider, OutputStream, MediaTransferService)
+     */
+    public DownloadResult download(@NonNull AttachmentProvider provider, @NonNull OutputStream output) {
+        return download(provider, output, TRANSFERS);
+    }
+
+    /**
+     * Downloads and decrypts a media into an output stream using the provided transfer service.
+     * The media is authenticated only when its end is reached: if the validation fails, the result is an error, but
+     * the bytes that were already written to the output stream are not authenticated and must be discarded.
+     *
+     * @param provider  the non-null media to download
+     * @param output    the non-null output stream
+     * @param transfers the non-null service used to download the media
+     * @return a non-null result
+     */
+    public DownloadResult download(@NonNull AttachmentProvider provider, @NonNull OutputStream output,
+            @NonNull MediaTransferService transfers) {
+        try (var stream = openDownload(provider, transfers).orElse(null)) {
+            if (stream == null) {
+                return DownloadResult.missing();
+            }
+
+            transfers.onDownload(stream.transferTo(output));
+            return DownloadResult.success();
         } catch (Throwable error) {
             return DownloadResult.error(error);
         }
     }
 
-    private byte[] calculateMac(byte[] encryptedMedia, MediaKeys keys) {
-        var hmacInput = Bytes.of(keys.iv())
-                .append(encryptedMedia)
-                .toByteArray();
-        return Bytes.of(Hmac.calculateSha256(hmacInput, keys.macKey()))
-                .cut(10)
-                .toByteArray();
+    /**
+     * Downloads and decrypts a media into a file.
+     * The media is written to a temporary file in the same directory, which is moved to the provided path only after
+     * the media was authenticated, so the file is never left with partial or tampered contents.
+     *
+     * @param provider the non-null media to download
+     * @param path     the non-null destination path
+     * @return a non-null result
+     * @see Medias#download(AttachmentProvider, Path, MediaTransferService)
+     */
+    public DownloadResult download(@NonNull AttachmentProvider provider, @NonNull Path path) {
+        return download(provider, path, TRANSFERS);
+    }
+
+    /**
+     * Downloads and decrypts a media into a file using the provided transfer service.
+     * The media is written to a temporary file in the same directory, which is moved to the provided path only after
+     * the media was authenticated, so the file is never left with partial or tampered contents.
+     *
+     * @param provider  the non-null media to download
+     * @param path      the non-null destination path
+     * @param transfers the non-null service used to download the media
+     * @return a non-null result
+     */
+    public DownloadResult download(@NonNull AttachmentProvider provider, @NonNull Path path,
+            @NonNull MediaTransferService transfers) {
+        Path partial = null;
+        try {
+            var parent = path.toAbsolutePath()
+                    .getParent();
+            Files.createDirectories(parent);
+            partial = Files.createTempFile(parent, ".%s".formatted(path.getFileName()), ".part");
+            DownloadResult result;
+            try (var output = Files.newOutputStream(partial)) {
+                result = download(provider, output, transfers);
+            }
+
+            if (result.status() == DownloadResult.Status.SUCCESS) {
+                moveFile(partial, path);
+            }
+
+            return result;
+        } catch (Throwable error) {
+            return DownloadResult.error(error);
+        } finally {
+            deleteFile(partial);
+        }
+    }
+
+    private void moveFile(Path source, Path destination) throws IOException {
+        try {
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Opens a channel that downloads and decrypts a media while it's being read
+     *
+     * @param provider the non-null media to download
+     * @return a non-null optional, empty if the media is no longer available
+     * @see Medias#downloadChannel(AttachmentProvider, MediaTransferService)
+     */
+    public Optional<ReadableByteChannel> downloadChannel(@NonNull AttachmentProvider provider) {
+        return downloadChannel(provider, TRANSFERS);
+    }
+
+    /**
+     * Opens a channel that downloads and decrypts a media while it's being read.
+     * The sha256 and the mac of the media are validated only when the end of the channel is reached: the bytes read
+     * before that point are not authenticated, and the last read throws an exception if the validation fails.
+     * Callers must not trust or persist the data until the channel was read completely.
+     * The channel holds a transfer slot of the service until it's closed.
+     *
+     * @param provider  the non-null media to download
+     * @param transfers the non-null service used to download the media
+     * @return a non-null optional, empty if the media is no longer available
+     */
+    public Optional<ReadableByteChannel> downloadChannel(@NonNull AttachmentProvider provider,
+            @NonNull MediaTransferService transfers) {
+        return openDownload(provider, transfers).map(Channels::newChannel);
+    }
+
+    // The body holds a transfer slot of the service until it's closed, and it's authenticated only once it was read completely
+    private Optional<InputStream> openDownload(AttachmentProvider provider, MediaTransferService transfers) {
+        Validate.isTrue(provider.mediaUrl() != null || provider.mediaDirectPath() != null,
+                        "Missing url and path from media");
+        var requests = Stream.of(provider.mediaUrl(), provider.mediaDirectPath() == null ?
+                        null :
+                        createMediaUrl(provider.mediaDirectPath()))
+                .filter(Objects::nonNull)
+                .distinct()
+                .map(url -> HttpRequest.newBuilder()
+                        .uri(URI.create(url))
+                        .GET()
+                        .build())
+                .toList();
+        var response = transfers.stream(requests);
+        if (response.statusCode() == HttpURLConnection.HTTP_NOT_FOUND || response.statusCode() == HttpURLConnection.HTTP_GONE) {
+            closeQuietly(response.body());
+            return Optional.empty();
+        }
+
+        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+            closeQuietly(response.body());
+            throw new IllegalStateException("Cannot download media: invalid status code %s".formatted(response.statusCode()));
+        }
+
+        var keys = MediaKeys.of(provider.mediaKey(), provider.mediaName());
+        return Optional.of(new MediaDecryptionStream(response.body(), keys, provider.mediaEncryptedSha256(),
+                                                     provider.mediaSize()));
+    }
+
+    private void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    public MediaTransferService transferService() {
+        return TRANSFERS;
     }
 
     public Optional<String> getMimeType(String name) {
@@ -199,8 +537,19 @@ public class Medias
         }
     }
 
+    public int getDuration(byte @NonNull [] file, boolean video) {
+        var entry = findScratchEntry(file);
+        return entry.durations()
+                .computeIfAbsent(video, ignored -> computeDuration(entry, file, video));
+    }
+
     @SneakyThrows
-    public int getDuration(byte[] file, boolean video) {
+    private int computeDuration(ScratchEntry entry, byte[] file, boolean video) {
+        var probed = MediaProbe.getDuration(file);
+        if (probed.isPresent()) {
+            return probed.get();
+        }
+
         if (!video) {
             try {
                 var audioInputStream = AudioSystem.getAudioInputStream(new ByteArrayInputStream(file));
@@ -210,32 +559,41 @@ public class Medias
                 var frameRate = format.getFrameRate();
                 return (int) (audioFileLength / (frameSize * frameRate));
             } catch (UnsupportedAudioFileException exception) {
-                return getDuration(file, true);
+                return getFfprobeDuration(entry, file);
             }
         }
 
-        try {
-            var input = createTempFile(file, true);
-            var process = Runtime.getRuntime()
-                    .exec("ffprobe -v error -show_entries format=duration -of default=noprint_wrappers=1:nokey=1 %s".formatted(
-                            input));
-            if (process.waitFor() != 0) {
-                return 0;
-            }
+        return getFfprobeDuration(entry, file);
+    }
 
-            var result = new String(process.getInputStream()
-                                            .readAllBytes(), StandardCharsets.UTF_8);
-            return (int) Float.parseFloat(result);
+    private int getFfprobeDuration(ScratchEntry entry, byte[] file) {
+        try {
+            return runProcess("ffprobe", "-v", "error", "-show_entries", "format=duration", "-of",
+                              "default=noprint_wrappers=1:nokey=1", entry.file(file)
+                                      .toString()).map(String::trim)
+                    .map(result -> (int) Float.parseFloat(result))
+                    .orElse(0);
         } catch (Throwable throwable) {
             return 0;
         }
     }
 
+    public MediaDimensions getDimensions(byte @NonNull [] file, boolean video) {
+        var entry = findScratchEntry(file);
+        return entry.dimensions()
+                .computeIfAbsent(video, ignored -> computeDimensions(entry, file, video));
+    }
+
     @SneakyThrows
-    public MediaDimensions getDimensions(byte[] file, boolean video) {
+    private MediaDimensions computeDimensions(ScratchEntry entry, byte[] file, boolean video) {
         if (!video) {
-            var originalImage = ImageIO.read(new ByteArrayInputStream(file));
-            return new MediaDimensions(originalImage.getWidth(), originalImage.getHeight());
+            return ImageScaler.getDimensions(file)
+                    .orElse(MediaDimensions.DEFAULT);
+        }
+
+        var probed = MediaProbe.getDimensions(file);
+        if (probed.isPresent()) {
+            return probed.get();
         }
 
         record FfprobeResult(List<MediaDimensions> streams) {
@@ -243,17 +601,14 @@ public class Medias
         }
 
         try {
-            var input = createTempFile(file, true);
-            var process = Runtime.getRuntime()
-                    .exec("ffprobe -v error -select_streams v -show_entries stream=width,height -of json %s".formatted(
-                            input));
-            if (process.waitFor() != 0) {
+            var result = runProcess("ffprobe", "-v", "error", "-select_streams", "v", "-show_entries",
+                                    "stream=width,height", "-of", "json", entry.file(file)
+                                            .toString());
+            if (result.isEmpty()) {
                 return MediaDimensions.DEFAULT;
             }
 
-            var result = new String(process.getInputStream()
-                                            .readAllBytes(), StandardCharsets.UTF_8);
-            var ffprobe = JSON.readValue(result, FfprobeResult.class);
+            var ffprobe = JSON.readValue(result.get(), FfprobeResult.class);
             if (ffprobe.streams() == null || ffprobe.streams()
                     .isEmpty()) {
                 return MediaDimensions.DEFAULT;
@@ -267,23 +622,43 @@ public class Medias
         }
     }
 
-    public Optional<byte[]> getThumbnail(byte[] file, Format format) {
+    private Optional<String> runProcess(String... command) throws IOException, InterruptedException {
+        var process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        var output = new String(process.getInputStream()
+                                        .readAllBytes(), StandardCharsets.UTF_8);
+        return process.waitFor() == 0 ?
+                Optional.of(output) :
+                Optional.empty();
+    }
+
+    public Optional<byte[]> getThumbnail(byte @NonNull [] file, @NonNull Format format) {
+        var entry = findScratchEntry(file);
+        return entry.thumbnails()
+                .computeIfAbsent(format, ignored -> computeThumbnail(entry, file, format));
+    }
+
+    public CompletableFuture<Optional<byte[]>> getThumbnailAsync(byte @NonNull [] file, @NonNull Format format) {
+        return ImageScaler.submit(() -> getThumbnail(file, format));
+    }
+
+    private Optional<byte[]> computeThumbnail(ScratchEntry entry, byte[] file, Format format) {
         return switch (format) {
             case JPG, PNG -> getImage(file, format, THUMBNAIL_SIZE);
-            case VIDEO -> getVideo(file);
+            case VIDEO -> getVideo(entry, file);
             case FILE -> Optional.empty(); // TODO: 04/06/2022 Implement a file thumbnail
         };
     }
 
-    private Optional<byte[]> getVideo(byte[] file) {
-        var input = createTempFile(file, true);
-        var output = createTempFile(file, false);
+    private Optional<byte[]> getVideo(ScratchEntry entry, byte[] file) {
+        Path output = null;
         try {
-            var process = Runtime.getRuntime()
-                    .exec("ffmpeg -ss 00:00:00 -i %s -y -vf scale=%s:-1 -vframes 1 -f image2 %s".formatted(input,
-                                                                                                           Medias.THUMBNAIL_SIZE,
-                                                                                                           output));
-            if (process.waitFor() != 0) {
+            var input = entry.file(file);
+            output = createTempFile();
+            var result = runProcess("ffmpeg", "-ss", "00:00:00", "-i", input.toString(), "-y", "-vf",
+                                    "scale=%s:-1".formatted(THUMBNAIL_SIZE), "-vframes", "1", "-f", "image2",
+                                    output.toString());
+            if (result.isEmpty()) {
                 return Optional.empty();
             }
 
@@ -291,94 +666,91 @@ public class Medias
         } catch (Throwable throwable) {
             return Optional.empty();
         } finally {
-            try {
-                Files.delete(output);
-            } catch (IOException ignored) {
-
-            }
+            deleteFile(output);
         }
     }
 
     private Optional<byte[]> getImage(byte[] file, Format format, int dimensions) {
-        try {
-            if (dimensions <= 0) {
-                return Optional.of(file);
-            }
+        if (dimensions <= 0) {
+            return Optional.of(file);
+        }
 
-            var image = ImageIO.read(new ByteArrayInputStream(file));
-            if (image == null) {
-                return Optional.empty();
-            }
+        return ImageScaler.scale(file, dimensions, false, format.name(), -1);
+    }
 
-            var resizedImage = getResizedImage(image, dimensions);
-            var outputStream = new ByteArrayOutputStream();
-            ImageIO.write(resizedImage, format.name()
-                    .toLowerCase(), outputStream);
-            return Optional.of(outputStream.toByteArray());
-        } catch (IOException exception) {
-            return Optional.empty();
-        }
+    public byte[] getProfilePic(byte @NonNull [] file) {
+        return ImageScaler.scale(file, PROFILE_PIC_SIZE, true, "jpeg", PROFILE_PIC_QUALITY)
+                .orElseThrow(() -> new IllegalArgumentException("Cannot generate profile pic: unsupported image"));
     }
 
-    public byte[] getProfilePic(byte[] file) {
+    private ScratchEntry findScratchEntry(byte[] media) {
+        var key = Bytes.of(findSha256(media))
+                .toHex();
+        return SCRATCH.get(key, ignored -> new ScratchEntry(media.length));
+    }
+
+    private Cache<String, ScratchEntry> createScratchCache() {
+        Cache<String, ScratchEntry> cache = Caffeine.newBuilder()
+                .maximumWeight(SCRATCH_MAX_WEIGHT)
+                .weigher((String key, ScratchEntry entry) -> entry.weight())
+                .expireAfterAccess(SCRATCH_EXPIRATION)
+                .executor(Runnable::run)
+                .removalListener((String key, ScratchEntry entry, RemovalCause cause) -> {
+                    if (entry != null) {
+                        entry.dispose();
+                    }
+                })
+                .build();
+        Runtime.getRuntime()
+                .addShutdownHook(new Thread(cache::invalidateAll));
+        return cache;
+    }
+
+    private Path createTempFile() throws IOException {
+        var name = Bytes.ofRandom(RANDOM_FILE_NAME_LENGTH)
+                .toHex();
+        return Files.createTempFile(name, "");
+    }
+
+    private void deleteFile(Path path) {
         try {
-            var originalImage = ImageIO.read(new ByteArrayInputStream(file));
-            var size = Math.min(originalImage.getWidth(), originalImage.getHeight());
-            var subImage = originalImage.getSubimage(0, 0, size, size);
-            var actual = getResizedImage(subImage, PROFILE_PIC_SIZE);
-            var outputStream = new ByteArrayOutputStream();
-            var writer = (ImageWriter) ImageIO.getImageWritersByFormatName("jpeg")
-                    .next();
-            writer.getDefaultWriteParam()
-                    .setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            writer.getDefaultWriteParam()
-                    .setCompressionQuality(0.5F);
-            writer.setOutput(outputStream);
-            writer.write(actual);
-            writer.dispose();
-            return outputStream.toByteArray();
-        } catch (IOException exception) {
-            throw new UncheckedIOException("Cannot generate profile pic", exception);
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException ignored) {
+
         }
     }
 
-    private BufferedImage getResizedImage(BufferedImage originalImage, int size) {
-        var type = originalImage.getType() == 0 ?
-                BufferedImage.TYPE_INT_ARGB :
-                originalImage.getType();
-        var resizedImage = new BufferedImage(size, size, type);
-        var graphics = resizedImage.createGraphics();
-        graphics.drawImage(originalImage, 0, 0, size, size, null);
-        graphics.dispose();
-        graphics.setComposite(AlphaComposite.Src);
-        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        return resizedImage;
+    public String createMediaUrl(@NonNull String directPath) {
+        return DEFAULT_HOST + directPath;
     }
 
-    @SneakyThrows
-    private Path createTempFile(byte[] media, boolean useCache) {
-        var hex = Bytes.of(media)
-                .toHex();
-        var cached = CACHE.get(hex);
-        if (useCache && cached != null && Files.exists(cached)) {
-            return cached;
+    private record ScratchEntry(int weight, Map<Boolean, MediaDimensions> dimensions, Map<Boolean, Integer> durations,
+                                Map<Format, Optional<byte[]>> thumbnails, AtomicReference<Path> file) {
+        private ScratchEntry(int weight) {
+            this(weight, new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>(),
+                 new AtomicReference<>());
         }
 
-        var name = Bytes.ofRandom(RANDOM_FILE_NAME_LENGTH)
-                .toHex();
-        var input = Files.createTempFile(name, "");
-        if (useCache) {
-            Files.write(input, media);
-            CACHE.put(hex, input);
+        private synchronized Path file(byte[] media) throws IOException {
+            var result = file.get();
+            if (result == null || !Files.exists(result)) {
+                result = createTempFile();
+                Files.write(result, media);
+                file.set(result);
+            }
+
+            return result;
         }
 
-        return input;
+        private synchronized void dispose() {
+            deleteFile(file.getAndSet(null));
+        }
     }
 
-    public String createMediaUrl(@NonNull String directPath) {
-        return DEFAULT_HOST + directPath;
+    private record EncryptedMedia(MediaKeys keys, byte[] fileSha256, byte[] fileEncSha256, long fileLength) {
+
     }
 
     public enum Format {
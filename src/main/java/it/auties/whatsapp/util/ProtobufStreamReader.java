@@ -0,0 +1,112 @@
+package it.auties.whatsapp.util;
+
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * A pull parser that reads the top level fields of a protobuf message one at a time from a stream.
+ * Only the field that is being read is kept in memory, so it can be used to process messages that are too big to be
+ * deserialized at once, for example a history sync with a repeated field holding every conversation.
+ */
+public class ProtobufStreamReader
+        implements Closeable {
+    private static final int VARINT = 0;
+    private static final int FIXED_64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED_32 = 5;
+
+    private final InputStream input;
+
+    public ProtobufStreamReader(@NonNull InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Reads the next top level field
+     *
+     * @return a non-null optional, empty if the end of the message was reached
+     * @throws IOException if the stream cannot be read or the message is malformed
+     */
+    public Optional<Field> next() throws IOException {
+        var tag = readVarint(true);
+        if (tag == -1) {
+            return Optional.empty();
+        }
+
+        var index = (int) (tag >>> 3);
+        return switch ((int) (tag & 7)) {
+            case VARINT -> Optional.of(new Field(index, readVarint(false), null));
+            case FIXED_64 -> Optional.of(new Field(index, readFixed(8), null));
+            case LENGTH_DELIMITED -> Optional.of(new Field(index, 0, readLengthDelimited()));
+            case FIXED_32 -> Optional.of(new Field(index, readFixed(4), null));
+            default -> throw new IOException("Unsupported wire type for field %s: %s".formatted(index, tag & 7));
+        };
+    }
+
+    private long readVarint(boolean allowEnd) throws IOException {
+        var result = 0L;
+        for (var shift = 0; shift < 64; shift += 7) {
+            var read = input.read();
+            if (read == -1) {
+                if (allowEnd && shift == 0) {
+                    return -1;
+                }
+
+                throw new EOFException("Truncated varint");
+            }
+
+            result |= (long) (read & 0x7F) << shift;
+            if ((read & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+    private long readFixed(int length) throws IOException {
+        var result = 0L;
+        for (var index = 0; index < length; index++) {
+            var read = input.read();
+            if (read == -1) {
+                throw new EOFException("Truncated fixed value");
+            }
+
+            result |= (long) read << (index * 8);
+        }
+
+        return result;
+    }
+
+    private byte[] readLengthDelimited() throws IOException {
+        var length = readVarint(false);
+        Validate.isTrue(length >= 0 && length <= Integer.MAX_VALUE, "Invalid length: %s", IOException.class, length);
+        var result = input.readNBytes((int) length);
+        if (result.length != length) {
+            throw new EOFException("Truncated length delimited field");
+        }
+
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * A top level field of a protobuf message
+     *
+     * @param index the index of the field
+     * @param value the value of the field if it's a scalar, otherwise zero
+     * @param bytes the encoded value of the field if it's length delimited, otherwise null
+     */
+    public record Field(int index, long value, byte[] bytes) {
+
+    }
+}
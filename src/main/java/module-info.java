@@ -2,6 +2,7 @@ import it.auties.whatsapp.serialization.ControllerProvider;
 
 open module it.auties.whatsappweb4j {
     requires static lombok;
+    requires static java.compiler;
     requires transitive java.desktop;
 
     requires jakarta.websocket;
@@ -58,4 +59,6 @@ open module it.auties.whatsappweb4j {
     exports it.auties.whatsapp.model.poll;
 
     uses ControllerProvider;
+
+    provides javax.annotation.processing.Processor with it.auties.whatsapp.listener.RegisterListenerProcessor;
 }
\ No newline at end of file
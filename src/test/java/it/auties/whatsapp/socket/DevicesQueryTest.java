@@ -0,0 +1,190 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.api.Whatsapp;
+import it.auties.whatsapp.api.Whatsapp.Options;
+import it.auties.whatsapp.controller.Keys;
+import it.auties.whatsapp.controller.Store;
+import it.auties.whatsapp.model.contact.ContactJid;
+import it.auties.whatsapp.model.request.Node;
+import it.auties.whatsapp.utils.SocketUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DevicesQueryTest {
+    @Test
+    public void testChunking() throws Exception {
+        var socket = createSocket();
+        var handler = new MessageHandler(socket);
+        var contacts = SocketUtils.jids(600);
+        var result = handler.queryDevices(contacts, false);
+        assertEquals(List.of(250, 250, 100), socket.queries()
+                .stream()
+                .map(query -> query.users()
+                        .size())
+                .toList());
+        socket.queries()
+                .forEach(DevicesRequest::respond);
+        var devices = result.get(5, TimeUnit.SECONDS);
+        assertEquals(contacts.size() * 2, devices.size());
+        assertEquals(contacts, devices.stream()
+                .map(ContactJid::toUserJid)
+                .distinct()
+                .toList());
+        assertEquals(List.of(ContactJid.ofDevice(contacts.get(0)
+                                                         .user(), 0), ContactJid.ofDevice(contacts.get(0)
+                                                                                                  .user(), 1)),
+                     socket.store()
+                             .devices()
+                             .get(contacts.get(0)
+                                          .user()));
+    }
+
+    @Test
+    public void testInFlightDeduplication() throws Exception {
+        var socket = createSocket();
+        var handler = new MessageHandler(socket);
+        var jids = SocketUtils.jids(3);
+        var first = handler.queryDevices(List.of(jids.get(0), jids.get(1), jids.get(0)), false);
+        var second = handler.queryDevices(List.of(ContactJid.ofDevice(jids.get(1)
+                                                                              .user(), 4), jids.get(2)), false);
+        var third = handler.queryDevices(List.of(jids.get(1)), true);
+        assertEquals(List.of(List.of(jids.get(0), jids.get(1)), List.of(jids.get(2)), List.of(jids.get(1))),
+                     socket.queries()
+                             .stream()
+                             .map(DevicesRequest::users)
+                             .toList());
+        assertFalse(second.isDone());
+        socket.queries()
+                .forEach(DevicesRequest::respond);
+        assertEquals(devices(jids.get(0), jids.get(1)), first.get(5, TimeUnit.SECONDS));
+        assertEquals(devices(jids.get(1), jids.get(2)), second.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(ContactJid.ofDevice(jids.get(1)
+                                                         .user(), 1)), third.get(5, TimeUnit.SECONDS));
+        handler.queryDevices(List.of(jids.get(0)), false);
+        assertEquals(4, socket.queries()
+                .size(), "Completed queries should not be shared");
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        var socket = createSocket();
+        var handler = new MessageHandler(socket);
+        var jids = SocketUtils.jids(2);
+        var first = handler.queryDevices(jids, false);
+        var second = handler.queryDevices(List.of(jids.get(1)), false);
+        assertEquals(1, socket.queries()
+                .size());
+        socket.queries()
+                .get(0)
+                .future()
+                .completeExceptionally(new IllegalStateException("Simulated failure"));
+        assertThrows(CompletionException.class, () -> first.orTimeout(5, TimeUnit.SECONDS)
+                .join());
+        assertThrows(CompletionException.class, () -> second.orTimeout(5, TimeUnit.SECONDS)
+                .join());
+        var retry = handler.queryDevices(List.of(jids.get(1)), false);
+        assertEquals(2, socket.queries()
+                .size());
+        socket.queries()
+                .get(1)
+                .respond();
+        assertEquals(devices(jids.get(1)), retry.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSynchronousFailure() throws Exception {
+        var socket = createSocket();
+        var handler = new MessageHandler(socket);
+        var jids = SocketUtils.jids(2);
+        socket.failing(true);
+        var failed = handler.queryDevices(jids, false);
+        var error = assertThrows(CompletionException.class, () -> failed.orTimeout(5, TimeUnit.SECONDS)
+                .join());
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+        socket.failing(false);
+        var retry = handler.queryDevices(jids, false);
+        assertEquals(1, socket.queries()
+                .size());
+        socket.queries()
+                .get(0)
+                .respond();
+        assertEquals(devices(jids.get(0), jids.get(1)), retry.get(5, TimeUnit.SECONDS));
+    }
+
+    private List<ContactJid> devices(ContactJid... users) {
+        var results = new ArrayList<ContactJid>();
+        for (var user : users) {
+            results.add(ContactJid.ofDevice(user.user(), 0));
+            results.add(ContactJid.ofDevice(user.user(), 1));
+        }
+
+        return results;
+    }
+
+    private RecordingSocketHandler createSocket() {
+        var socket = SocketUtils.createSocket(SocketUtils.createOptions(), RecordingSocketHandler::new);
+        socket.store()
+                .userCompanionJid(ContactJid.ofDevice("393400000000", 1));
+        return socket;
+    }
+
+    private record DevicesRequest(List<ContactJid> users, CompletableFuture<Node> future) {
+        // Every user has a primary device and a companion
+        private void respond() {
+            var entries = users.stream()
+                    .map(user -> Node.ofChildren("user", Map.of("jid", user.toString()),
+                                                 Node.ofChildren("devices", Node.ofChildren("device-list",
+                                                                                            Node.ofAttributes("device", Map.of("id", "0")),
+                                                                                            Node.ofAttributes("device", Map.of("id", "1", "key-index", "1"))))))
+                    .toList();
+            future.complete(Node.ofChildren("iq", Node.ofChildren("usync", Node.ofChildren("list", entries))));
+        }
+    }
+
+    private static class RecordingSocketHandler
+            extends SocketHandler {
+        private final List<DevicesRequest> queries;
+        private volatile boolean failing;
+
+        private RecordingSocketHandler(Whatsapp whatsapp, Options options, Store store, Keys keys) {
+            super(whatsapp, options, store, keys);
+            this.queries = new CopyOnWriteArrayList<>();
+        }
+
+        @Override
+        public CompletableFuture<Node> sendQuery(String method, String category, Node... body) {
+            if (failing) {
+                throw new IllegalStateException("Simulated disconnection");
+            }
+
+            var users = body[0].findNode("list")
+                    .orElseThrow()
+                    .findNodes("user")
+                    .stream()
+                    .map(user -> user.attributes()
+                            .getJid("jid")
+                            .orElseThrow())
+                    .toList();
+            var future = new CompletableFuture<Node>();
+            queries.add(new DevicesRequest(users, future));
+            return future;
+        }
+
+        private void failing(boolean failing) {
+            this.failing = failing;
+        }
+
+        private List<DevicesRequest> queries() {
+            return List.copyOf(queries);
+        }
+    }
+}
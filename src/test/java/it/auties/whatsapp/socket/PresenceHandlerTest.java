@@ -0,0 +1,148 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.api.Whatsapp;
+import it.auties.whatsapp.api.Whatsapp.Options;
+import it.auties.whatsapp.controller.Keys;
+import it.auties.whatsapp.controller.Store;
+import it.auties.whatsapp.model.chat.Chat;
+import it.auties.whatsapp.model.contact.ContactJid;
+import it.auties.whatsapp.model.contact.ContactJidProvider;
+import it.auties.whatsapp.model.info.MessageInfo;
+import it.auties.whatsapp.model.message.model.MessageKey;
+import it.auties.whatsapp.utils.SocketUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceHandlerTest {
+    @Test
+    public void testBurst() {
+        var socket = createSocket(5, 1);
+        var handler = new PresenceHandler(socket);
+        SocketUtils.jids(10).forEach(handler::subscribeToNewContact);
+        assertEquals(SocketUtils.jids(5), socket.subscriptions());
+        assertEquals(5, handler.progress()
+                .subscribed());
+        assertEquals(5, handler.progress()
+                .pending());
+        handler.dispose();
+    }
+
+    @Test
+    public void testRefill() throws InterruptedException {
+        var socket = createSocket(2, 20);
+        var handler = new PresenceHandler(socket);
+        var start = System.nanoTime();
+        SocketUtils.jids(6).forEach(handler::subscribeToNewContact);
+        assertEquals(2, socket.subscriptions()
+                .size());
+        var deadline = start + TimeUnit.SECONDS.toNanos(5);
+        while (socket.subscriptions()
+                .size() < 6 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // The four subscriptions that exceed the burst need one token each, refilled at 20 tokens per second
+        var elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(SocketUtils.jids(6), socket.subscriptions());
+        assertTrue(elapsed >= 150, "Tokens were refilled too quickly: %sms".formatted(elapsed));
+        assertEquals(0, handler.progress()
+                .pending());
+    }
+
+    @Test
+    public void testDeduplication() {
+        var socket = createSocket(10, 1);
+        var handler = new PresenceHandler(socket);
+        var jid = SocketUtils.jid(0);
+        handler.subscribeToNewContact(jid);
+        handler.subscribeToNewContact(jid);
+        handler.subscribeToNewContact(ContactJid.ofDevice(jid.user(), 3));
+        handler.onSubscribed(SocketUtils.jid(1));
+        handler.subscribeToNewContact(SocketUtils.jid(1));
+        assertEquals(List.of(jid), socket.subscriptions());
+        assertEquals(2, handler.progress()
+                .subscribed());
+        assertEquals(0, handler.progress()
+                .pending());
+    }
+
+    @Test
+    public void testDisconnected() {
+        var socket = createSocket(10, 1);
+        socket.state(SocketState.WAITING);
+        var handler = new PresenceHandler(socket);
+        handler.subscribeToNewContact(SocketUtils.jid(0));
+        handler.subscribeToNewContact(SocketUtils.jid(0));
+        assertTrue(socket.subscriptions()
+                           .isEmpty());
+        assertEquals(1, handler.progress()
+                .pending());
+        socket.state(SocketState.CONNECTED);
+        handler.subscribeToNewContact(SocketUtils.jid(1));
+        assertEquals(SocketUtils.jids(2), socket.subscriptions());
+    }
+
+    @Test
+    public void testChatsPriority() {
+        var socket = createSocket(10, 1);
+        socket.state(SocketState.WAITING);
+        var store = socket.store();
+        store.addChat(createChat(SocketUtils.jid(0), 100));
+        store.addChat(createChat(SocketUtils.jid(1), 300));
+        store.addChat(createChat(SocketUtils.jid(2), 200));
+        store.addChat(Chat.ofJid(ContactJid.of("120363025246125486@g.us")));
+        var handler = new PresenceHandler(socket);
+        handler.subscribeToChats();
+        socket.state(SocketState.CONNECTED);
+        handler.subscribeToNewContact(SocketUtils.jid(3));
+        assertEquals(List.of(SocketUtils.jid(3), SocketUtils.jid(1), SocketUtils.jid(2), SocketUtils.jid(0)),
+                     socket.subscriptions());
+    }
+
+    private Chat createChat(ContactJid jid, long timestamp) {
+        var chat = Chat.ofJid(jid);
+        var key = MessageKey.builder()
+                .chatJid(jid)
+                .build();
+        chat.addMessage(MessageInfo.builder()
+                                .key(key)
+                                .timestamp(timestamp)
+                                .build());
+        return chat;
+    }
+
+    private RecordingSocketHandler createSocket(int burst, int perSecond) {
+        var options = SocketUtils.createOptions()
+                .withPresenceSubscriptionsBurst(burst)
+                .withPresenceSubscriptionsPerSecond(perSecond);
+        var socket = SocketUtils.createSocket(options, RecordingSocketHandler::new);
+        socket.state(SocketState.CONNECTED);
+        return socket;
+    }
+
+    private static class RecordingSocketHandler
+            extends SocketHandler {
+        private final List<ContactJid> subscriptions;
+
+        private RecordingSocketHandler(Whatsapp whatsapp, Options options, Store store, Keys keys) {
+            super(whatsapp, options, store, keys);
+            this.subscriptions = new CopyOnWriteArrayList<>();
+        }
+
+        @Override
+        public CompletableFuture<Void> subscribeToPresence(ContactJidProvider jid) {
+            subscriptions.add(jid.toJid());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        private List<ContactJid> subscriptions() {
+            return List.copyOf(subscriptions);
+        }
+    }
+}
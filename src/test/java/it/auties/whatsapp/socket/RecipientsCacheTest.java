@@ -0,0 +1,82 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.model.contact.ContactJid;
+import it.auties.whatsapp.model.request.Node;
+import it.auties.whatsapp.utils.SocketUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecipientsCacheTest {
+    private static final ContactJid GROUP = ContactJid.of("120363025246125486@g.us");
+    private static final ContactJid FIRST = ContactJid.of("393495089819@s.whatsapp.net");
+    private static final ContactJid SECOND = ContactJid.of("393495089820@s.whatsapp.net");
+    private static final ContactJid THIRD = ContactJid.of("393495089821@s.whatsapp.net");
+
+    @Test
+    public void testAddParticipants() {
+        var cache = createCache();
+        cache.putGroupParticipants(GROUP, List.of(FIRST, SECOND));
+        cache.onGroupNotification(GROUP, createNotification("add", THIRD, FIRST));
+        assertEquals(List.of(FIRST, SECOND, THIRD), cache.findGroupParticipants(GROUP)
+                .orElseThrow());
+        assertFalse(cache.isGroupStale(GROUP));
+    }
+
+    @Test
+    public void testRemoveParticipants() {
+        var cache = createCache();
+        cache.putGroupParticipants(GROUP, List.of(FIRST, SECOND, THIRD));
+        cache.onGroupNotification(GROUP, createNotification("remove", SECOND));
+        assertEquals(List.of(FIRST, THIRD), cache.findGroupParticipants(GROUP)
+                .orElseThrow());
+        cache.onGroupNotification(GROUP, createNotification("leave", FIRST));
+        assertEquals(List.of(THIRD), cache.findGroupParticipants(GROUP)
+                .orElseThrow());
+        assertFalse(cache.isGroupStale(GROUP));
+    }
+
+    @Test
+    public void testIgnoredNotifications() {
+        var cache = createCache();
+        cache.onGroupNotification(GROUP, createNotification("add", FIRST));
+        assertTrue(cache.findGroupParticipants(GROUP)
+                           .isEmpty());
+        cache.putGroupParticipants(GROUP, List.of(FIRST, SECOND));
+        cache.onGroupNotification(GROUP, createNotification("promote", FIRST));
+        cache.onGroupNotification(GROUP, createNotification("subject"));
+        cache.onGroupNotification(GROUP, Node.of("notification"));
+        assertEquals(List.of(FIRST, SECOND), cache.findGroupParticipants(GROUP)
+                .orElseThrow());
+    }
+
+    @Test
+    public void testInvalidatingNotifications() {
+        var cache = createCache();
+        cache.putGroupParticipants(GROUP, List.of(FIRST, SECOND));
+        cache.onGroupNotification(GROUP, createNotification("add"));
+        assertTrue(cache.findGroupParticipants(GROUP)
+                           .isEmpty());
+        assertTrue(cache.isGroupStale(GROUP));
+        cache.putGroupParticipants(GROUP, List.of(FIRST, SECOND));
+        cache.onGroupNotification(GROUP, createNotification("create", THIRD));
+        assertTrue(cache.findGroupParticipants(GROUP)
+                           .isEmpty());
+        assertTrue(cache.isGroupStale(GROUP));
+    }
+
+    private Node createNotification(String action, ContactJid... participants) {
+        var children = Arrays.stream(participants)
+                .map(participant -> Node.ofAttributes("participant", Map.of("jid", participant.toString())))
+                .toList();
+        return Node.ofChildren("notification", Node.ofChildren(action, children));
+    }
+
+    private RecipientsCache createCache() {
+        return new RecipientsCache(SocketUtils.createSocket());
+    }
+}
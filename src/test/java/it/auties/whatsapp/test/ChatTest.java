@@ -0,0 +1,133 @@
+package it.auties.whatsapp.test;
+
+import it.auties.whatsapp.model.chat.Chat;
+import it.auties.whatsapp.model.contact.ContactJid;
+import it.auties.whatsapp.model.info.MessageInfo;
+import it.auties.whatsapp.model.message.model.MessageKey;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChatTest {
+    private static final ContactJid JID = ContactJid.of("393495089819@s.whatsapp.net");
+
+    @Test
+    public void testFindMessageById() {
+        var chat = Chat.ofJid(JID);
+        var first = createMessage("first");
+        assertTrue(chat.findMessageById("first")
+                           .isEmpty());
+        assertTrue(chat.addMessage(first));
+        assertFalse(chat.addMessage(createMessage("first")));
+        assertSame(first, chat.findMessageById("first")
+                .orElseThrow());
+        assertEquals(2, chat.addMessages(List.of(createMessage("first"), createMessage("second"),
+                                                 createMessage("third"))));
+        assertSame(first, chat.findMessageById("first")
+                .orElseThrow());
+        assertEquals("third", chat.findMessageById("third")
+                .orElseThrow()
+                .id());
+        assertTrue(chat.findMessageById(null)
+                           .isEmpty());
+    }
+
+    @Test
+    public void testFindMessageByIdBeforeIndexing() {
+        var chat = Chat.builder()
+                .jid(JID)
+                .messages(List.of(createMessage("first"), createMessage("second")))
+                .build();
+        assertTrue(chat.findMessageById("second")
+                           .isPresent());
+        var replacement = new ConcurrentLinkedDeque<MessageInfo>();
+        replacement.add(createMessage("third"));
+        chat.messages(replacement);
+        assertTrue(chat.findMessageById("second")
+                           .isEmpty());
+        assertTrue(chat.findMessageById("third")
+                           .isPresent());
+    }
+
+    @Test
+    public void testRemoveMessageUpdatesIndex() {
+        var chat = Chat.ofJid(JID);
+        var first = createMessage("first");
+        chat.addMessages(List.of(first, createMessage("second"), createMessage("third")));
+        assertTrue(chat.findMessageById("first")
+                           .isPresent());
+        assertTrue(chat.removeMessage(first));
+        assertTrue(chat.findMessageById("first")
+                           .isEmpty());
+        assertTrue(chat.removeMessage(message -> message.id()
+                .equals("second")));
+        assertTrue(chat.findMessageById("second")
+                           .isEmpty());
+        assertTrue(chat.findMessageById("third")
+                           .isPresent());
+        chat.removeMessages();
+        assertTrue(chat.findMessageById("third")
+                           .isEmpty());
+        chat.addMessage(first);
+        assertSame(first, chat.findMessageById("first")
+                .orElseThrow());
+    }
+
+    @Test
+    public void testIncrementUnreadMessagesCount() {
+        var chat = Chat.ofJid(JID);
+        assertFalse(chat.hasUnreadMessages());
+        assertEquals(1, chat.incrementUnreadMessagesCount());
+        assertEquals(2, chat.incrementUnreadMessagesCount());
+        assertTrue(chat.hasUnreadMessages());
+        chat.unreadMessagesCount(-1);
+        assertEquals(1, chat.incrementUnreadMessagesCount());
+        assertEquals(1, chat.unreadMessagesCount());
+    }
+
+    @Test
+    public void testConcurrentIncrementUnreadMessagesCount() throws InterruptedException {
+        var chat = Chat.ofJid(JID);
+        chat.unreadMessagesCount(-1);
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var start = new CountDownLatch(1);
+            for (var thread = 0; thread < 8; thread++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                        for (var increment = 0; increment < 10_000; increment++) {
+                            chat.incrementUnreadMessagesCount();
+                        }
+                    } catch (InterruptedException exception) {
+                        Thread.currentThread()
+                                .interrupt();
+                    }
+                });
+            }
+
+            start.countDown();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(80_000, chat.unreadMessagesCount());
+    }
+
+    private MessageInfo createMessage(String id) {
+        var key = MessageKey.builder()
+                .chatJid(JID)
+                .id(id)
+                .build();
+        return MessageInfo.builder()
+                .key(key)
+                .build();
+    }
+}
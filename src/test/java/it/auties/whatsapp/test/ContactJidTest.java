@@ -0,0 +1,96 @@
+package it.auties.whatsapp.test;
+
+import it.auties.whatsapp.model.contact.ContactJid;
+import it.auties.whatsapp.model.contact.ContactJid.Server;
+import it.auties.whatsapp.utils.BenchmarkUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContactJidTest {
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+
+    @Test
+    public void testParse() {
+        assertEquals(new ContactJid("393495089819", Server.WHATSAPP, 0, 0), ContactJid.of("393495089819@s.whatsapp.net"));
+        assertEquals(new ContactJid("393495089819", Server.WHATSAPP, 12, 0), ContactJid.of("393495089819:12@s.whatsapp.net"));
+        assertEquals(new ContactJid("393495089819", Server.WHATSAPP, 3, 1), ContactJid.of("393495089819_1:3@s.whatsapp.net"));
+        assertEquals(new ContactJid("393495089819", Server.WHATSAPP, 0, 0), ContactJid.of("393495089819_abc@s.whatsapp.net"));
+        assertEquals(new ContactJid("120363025246125486", Server.GROUP, 0, 0), ContactJid.of("120363025246125486@g.us"));
+        assertEquals(new ContactJid("status", Server.BROADCAST, 0, 0), ContactJid.of("status@broadcast"));
+        assertEquals("393495089819:12@s.whatsapp.net", ContactJid.of("393495089819:12@s.whatsapp.net")
+                .toString());
+    }
+
+    @Test
+    public void testInterning() {
+        var jid = ContactJid.of("393495089819@s.whatsapp.net");
+        assertSame(jid, ContactJid.of("393495089819@s.whatsapp.net"));
+        assertSame(jid, ContactJid.of("393495089819", Server.WHATSAPP));
+        assertSame(jid, ContactJid.ofDevice("393495089819", 0));
+        assertSame(jid, ContactJid.ofCompanion("393495089819@s.whatsapp.net", 0, 0));
+        var device = ContactJid.of("393495089819:5@s.whatsapp.net");
+        assertSame(device, ContactJid.ofDevice("393495089819", 5));
+        assertNotSame(jid, device);
+        assertSame(ContactJid.ofServer(Server.GROUP), ContactJid.of(null, Server.GROUP));
+    }
+
+    @Test
+    public void testParseMatchesRegex() {
+        createJids(1_000).forEach(jid -> assertEquals(parseWithRegex(jid), ContactJid.of(jid)));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void benchmarkParse() {
+        var jids = createJids(10_000);
+        BenchmarkUtils.measure("Regex jid parsing", WARMUP, ITERATIONS, () -> parseAll(jids, this::parseWithRegex));
+        BenchmarkUtils.measure("Uncached jid parsing", WARMUP, ITERATIONS,
+                               () -> parseAll(jids, jid -> ContactJid.of(jid, Server.of(jid))));
+        BenchmarkUtils.measure("Cached jid parsing", WARMUP, ITERATIONS, () -> parseAll(jids, ContactJid::of));
+    }
+
+    private List<String> createJids(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(index -> "39%010d:%s@s.whatsapp.net".formatted(index, index % 4))
+                .toList();
+    }
+
+    private List<ContactJid> parseAll(List<String> jids, Function<String, ContactJid> parser) {
+        return jids.stream()
+                .map(parser)
+                .toList();
+    }
+
+    // The implementation that ContactJid.of replaced
+    private ContactJid parseWithRegex(String jid) {
+        var server = Arrays.stream(Server.values())
+                .filter(entry -> jid.endsWith(entry.address()))
+                .findFirst()
+                .orElse(Server.WHATSAPP);
+        var complexUser = jid;
+        for (var entry : Server.values()) {
+            complexUser = complexUser.replaceAll("@%s".formatted(entry.address()), "");
+        }
+
+        if (complexUser.contains(":")) {
+            var simpleUser = complexUser.split(":", 2);
+            var device = Integer.parseUnsignedInt(simpleUser[1]);
+            if (simpleUser[0].contains("_")) {
+                var simpleUserAgent = simpleUser[0].split("_", 2);
+                return new ContactJid(simpleUserAgent[0], server, device, Integer.parseUnsignedInt(simpleUserAgent[1]));
+            }
+
+            return new ContactJid(simpleUser[0], server, device, 0);
+        }
+
+        return new ContactJid(complexUser, server, 0, 0);
+    }
+}
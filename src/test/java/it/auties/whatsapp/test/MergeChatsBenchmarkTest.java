@@ -0,0 +1,124 @@
+package it.auties.whatsapp.test;
+
+import it.auties.whatsapp.controller.Store;
+import it.auties.whatsapp.model.chat.Chat;
+import it.auties.whatsapp.model.contact.ContactJid;
+import it.auties.whatsapp.model.info.MessageInfo;
+import it.auties.whatsapp.model.message.model.MessageKey;
+import it.auties.whatsapp.utils.BenchmarkUtils;
+import it.auties.whatsapp.utils.SocketUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Compares Store.mergeChats with merging the conversations of a history sync one by one
+public class MergeChatsBenchmarkTest {
+    private static final int CHATS = 250;
+    private static final int STORED_MESSAGES = 200;
+    private static final int SYNCED_MESSAGES = 100;
+    private static final int OVERLAPPING_MESSAGES = 50;
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void testMergeChats() {
+        var store = createStore();
+        var carriers = createCarriers();
+        carriers.add(createChat(SocketUtils.jid(0), STORED_MESSAGES + SYNCED_MESSAGES - OVERLAPPING_MESSAGES, 10));
+        var merged = store.mergeChats(carriers);
+        assertEquals(CHATS + 1, merged.size());
+        assertEquals(CHATS + 1, store.chats()
+                .size());
+        for (var index = 0; index < CHATS; index++) {
+            var chat = merged.get(index);
+            assertSame(store.findChatByJid(SocketUtils.jid(index))
+                               .orElseThrow(), chat);
+            var expected = STORED_MESSAGES + SYNCED_MESSAGES - OVERLAPPING_MESSAGES + (index == 0 ? 10 : 0);
+            assertEquals(expected, chat.messages()
+                    .size(), "Invalid messages for %s".formatted(chat.jid()));
+            var synced = chat.findMessageById("%s-%s".formatted(chat.jid()
+                                                                        .user(), STORED_MESSAGES));
+            assertTrue(synced.isPresent(), "Missing synced message for %s".formatted(chat.jid()));
+            assertSame(chat, synced.get()
+                    .key()
+                    .chat());
+        }
+
+        var created = merged.get(CHATS);
+        assertEquals(SocketUtils.jid(CHATS), created.jid());
+        assertEquals(SYNCED_MESSAGES, created.messages()
+                .size());
+        assertTrue(store.findContactByJid(SocketUtils.jid(CHATS))
+                           .isPresent());
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void benchmarkMergeChats() {
+        BenchmarkUtils.measure("Merge chats one by one", WARMUP, ITERATIONS, () -> {
+            var store = createStore();
+            createCarriers().forEach(carrier -> mergeChat(store, carrier));
+            return store;
+        });
+        BenchmarkUtils.measure("Merge chats in bulk", WARMUP, ITERATIONS, () -> {
+            var store = createStore();
+            store.mergeChats(createCarriers());
+            return store;
+        });
+    }
+
+    // The path used by history syncs before mergeChats
+    private void mergeChat(Store store, Chat carrier) {
+        var chat = store.findChatByJid(carrier.jid());
+        if (chat.isEmpty()) {
+            store.addChat(carrier);
+            return;
+        }
+
+        carrier.messages()
+                .stream()
+                .map(store::attribute)
+                .forEach(chat.get()::addMessage);
+    }
+
+    private Store createStore() {
+        var store = Store.random(SocketUtils.STORE_ID, false);
+        for (var index = 0; index < CHATS; index++) {
+            store.addChat(createChat(SocketUtils.jid(index), 0, STORED_MESSAGES));
+        }
+
+        return store;
+    }
+
+    private List<Chat> createCarriers() {
+        var results = new ArrayList<Chat>();
+        for (var index = 0; index <= CHATS; index++) {
+            var offset = STORED_MESSAGES - OVERLAPPING_MESSAGES;
+            results.add(createChat(SocketUtils.jid(index), offset, SYNCED_MESSAGES));
+        }
+
+        return results;
+    }
+
+    private Chat createChat(ContactJid jid, int offset, int messages) {
+        var chat = Chat.ofJid(jid);
+        for (var index = offset; index < offset + messages; index++) {
+            var key = MessageKey.builder()
+                    .chatJid(jid)
+                    .id("%s-%s".formatted(jid.user(), index))
+                    .senderJid(jid)
+                    .build();
+            chat.addMessage(MessageInfo.builder()
+                                    .key(key)
+                                    .build());
+        }
+
+        return chat;
+    }
+
+
+}
@@ -0,0 +1,65 @@
+package it.auties.whatsapp.test;
+
+import it.auties.whatsapp.model.contact.ContactJid;
+import it.auties.whatsapp.model.message.model.MessageReceipt;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageReceiptTest {
+    private static final ContactJid FIRST = ContactJid.of("393495089819@s.whatsapp.net");
+    private static final ContactJid SECOND = ContactJid.of("393495089820@s.whatsapp.net");
+    private static final ContactJid THIRD = ContactJid.of("393495089821@s.whatsapp.net");
+
+    @Test
+    public void testAddJid() {
+        var receipt = MessageReceipt.of();
+        assertTrue(receipt.addDeliveredJid(FIRST));
+        assertTrue(receipt.addDeliveredJid(SECOND));
+        assertFalse(receipt.addDeliveredJid(FIRST));
+        assertTrue(receipt.addReadJid(FIRST));
+        assertFalse(receipt.addReadJid(FIRST));
+        assertEquals(List.of(FIRST, SECOND), receipt.deliveredJids());
+        assertEquals(List.of(FIRST), receipt.readJids());
+    }
+
+    @Test
+    public void testAddJidToDeserializedList() {
+        var receipt = MessageReceipt.builder()
+                .deliveredJids(List.of(FIRST, SECOND, FIRST))
+                .build();
+        assertFalse(receipt.addDeliveredJid(SECOND));
+        assertEquals(List.of(FIRST, SECOND), receipt.deliveredJids());
+        assertTrue(receipt.addDeliveredJid(THIRD));
+        assertEquals(List.of(FIRST, SECOND, THIRD), receipt.deliveredJids());
+    }
+
+    @Test
+    public void testSetterResetsIndex() {
+        var receipt = MessageReceipt.of();
+        receipt.addReadJid(FIRST);
+        receipt.addReadJid(SECOND);
+        var jids = List.of(THIRD);
+        receipt.readJids(jids);
+        assertTrue(receipt.addReadJid(FIRST));
+        assertFalse(receipt.addReadJid(THIRD));
+        assertEquals(List.of(THIRD, FIRST), receipt.readJids());
+        assertEquals(List.of(THIRD), jids);
+        receipt.readJids(List.of());
+        assertTrue(receipt.addReadJid(THIRD));
+        assertEquals(List.of(THIRD), receipt.readJids());
+    }
+
+    @Test
+    public void testUnmodifiableViews() {
+        var receipt = MessageReceipt.of();
+        receipt.addDeliveredJid(FIRST);
+        assertThrows(UnsupportedOperationException.class, () -> receipt.deliveredJids()
+                .add(SECOND));
+        assertThrows(UnsupportedOperationException.class, () -> receipt.readJids()
+                .add(SECOND));
+        assertTrue(receipt.addDeliveredJid(SECOND));
+    }
+}
@@ -0,0 +1,123 @@
+package it.auties.whatsapp.test;
+
+import it.auties.whatsapp.util.ProtobufStreamReader;
+import it.auties.whatsapp.util.ProtobufStreamReader.Field;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProtobufStreamReaderTest {
+    @Test
+    public void testScalarFields() throws IOException {
+        var output = new ByteArrayOutputStream();
+        writeVarint(output, 1 << 3);
+        writeVarint(output, 150);
+        writeVarint(output, 2 << 3);
+        writeVarint(output, -1L);
+        writeVarint(output, 3 << 3 | 1);
+        writeFixed(output, 0x0102030405060708L, 8);
+        writeVarint(output, 4 << 3 | 5);
+        writeFixed(output, 0xCAFEBABEL, 4);
+        var fields = readAll(output.toByteArray());
+        assertEquals(4, fields.size());
+        assertField(fields.get(0), 1, 150);
+        assertField(fields.get(1), 2, -1L);
+        assertField(fields.get(2), 3, 0x0102030405060708L);
+        assertField(fields.get(3), 4, 0xCAFEBABEL);
+    }
+
+    @Test
+    public void testLengthDelimitedFields() throws IOException {
+        var large = new byte[70_000];
+        for (var index = 0; index < large.length; index++) {
+            large[index] = (byte) index;
+        }
+
+        var output = new ByteArrayOutputStream();
+        writeLengthDelimited(output, 2, "hello".getBytes(StandardCharsets.UTF_8));
+        writeLengthDelimited(output, 2, new byte[0]);
+        writeLengthDelimited(output, 300, large);
+        var fields = readAll(output.toByteArray());
+        assertEquals(3, fields.size());
+        assertEquals(2, fields.get(0).index());
+        assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), fields.get(0).bytes());
+        assertEquals(2, fields.get(1).index());
+        assertArrayEquals(new byte[0], fields.get(1).bytes());
+        assertEquals(300, fields.get(2).index());
+        assertArrayEquals(large, fields.get(2).bytes());
+    }
+
+    @Test
+    public void testEmptyMessage() throws IOException {
+        try (var reader = new ProtobufStreamReader(new ByteArrayInputStream(new byte[0]))) {
+            assertTrue(reader.next().isEmpty());
+            assertTrue(reader.next().isEmpty());
+        }
+    }
+
+    @Test
+    public void testTruncatedMessage() throws IOException {
+        var output = new ByteArrayOutputStream();
+        writeLengthDelimited(output, 1, new byte[16]);
+        var message = output.toByteArray();
+        assertThrows(EOFException.class, () -> readAll(Arrays.copyOf(message, message.length - 1)));
+        assertThrows(EOFException.class, () -> readAll(new byte[]{1 << 3, (byte) 0x80}));
+        assertThrows(EOFException.class, () -> readAll(new byte[]{1 << 3 | 5, 1, 2}));
+    }
+
+    @Test
+    public void testMalformedMessage() {
+        assertThrows(IOException.class, () -> readAll(new byte[]{1 << 3 | 3}));
+        var varint = new byte[11];
+        varint[0] = 1 << 3;
+        Arrays.fill(varint, 1, varint.length, (byte) 0xFF);
+        assertThrows(IOException.class, () -> readAll(varint));
+    }
+
+    private List<Field> readAll(byte[] message) throws IOException {
+        try (var reader = new ProtobufStreamReader(new ByteArrayInputStream(message))) {
+            var results = new ArrayList<Field>();
+            for (var field = reader.next(); field.isPresent(); field = reader.next()) {
+                results.add(field.get());
+            }
+
+            return results;
+        }
+    }
+
+    private void assertField(Field field, int index, long value) {
+        assertEquals(index, field.index());
+        assertEquals(value, field.value());
+        assertNull(field.bytes());
+    }
+
+    private void writeLengthDelimited(ByteArrayOutputStream output, int index, byte[] value) {
+        writeVarint(output, (long) index << 3 | 2);
+        writeVarint(output, value.length);
+        output.writeBytes(value);
+    }
+
+    private void writeVarint(ByteArrayOutputStream output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        output.write((int) value);
+    }
+
+    private void writeFixed(ByteArrayOutputStream output, long value, int length) {
+        for (var index = 0; index < length; index++) {
+            output.write((int) (value >>> (index * 8)) & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package it.auties.whatsapp.test;
+
+import it.auties.bytes.Bytes;
+import it.auties.whatsapp.model.signal.sender.SenderChainKey;
+import it.auties.whatsapp.model.signal.sender.SenderMessageKey;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SenderChainKeyTest {
+    @Test
+    public void testAdvanceMatchesNext() {
+        var start = new SenderChainKey(0, Bytes.ofRandom(32)
+                .toByteArray());
+        var expected = start;
+        for (var i = 0; i < 100; i++) {
+            expected = expected.next();
+        }
+
+        var actual = start.advance(100, Integer.MAX_VALUE, key -> fail("No key should be retained"));
+        assertEquals(expected.iteration(), actual.iteration());
+        assertArrayEquals(expected.seed(), actual.seed());
+    }
+
+    @Test
+    public void testAdvanceRetainsSkippedKeys() {
+        var start = new SenderChainKey(5, Bytes.ofRandom(32)
+                .toByteArray());
+        var skipped = new ArrayList<SenderMessageKey>();
+        var result = start.advance(15, 10, skipped::add);
+        assertEquals(15, result.iteration());
+        assertEquals(5, skipped.size());
+        var chain = start;
+        for (var iteration = 5; iteration < 15; iteration++) {
+            if (iteration >= 10) {
+                var expected = chain.toMessageKey();
+                var actual = skipped.get(iteration - 10);
+                assertEquals(expected.iteration(), actual.iteration());
+                assertArrayEquals(expected.seed(), actual.seed());
+                assertArrayEquals(expected.cipherKey(), actual.cipherKey());
+                assertArrayEquals(expected.iv(), actual.iv());
+            }
+
+            chain = chain.next();
+        }
+    }
+
+    @Test
+    public void testAdvanceToCurrentIteration() {
+        var start = new SenderChainKey(7, Bytes.ofRandom(32)
+                .toByteArray());
+        assertSame(start, start.advance(7, 0, key -> fail("No key should be skipped")));
+        assertSame(start, start.advance(3, 0, key -> fail("No key should be skipped")));
+    }
+}
@@ -0,0 +1,119 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.model.media.MediaDimensions;
+import it.auties.whatsapp.utils.BenchmarkUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Compares ImageScaler with the full decode, scale and encode pipeline it replaced
+public class ImageScalerBenchmarkTest {
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 10;
+
+    @Test
+    public void testThumbnail() {
+        var scaled = ImageScaler.scale(createJpeg(800, 600), 32, false, "jpg", -1);
+        assertTrue(scaled.isPresent(), "Missing thumbnail");
+        assertEquals(Optional.of(new MediaDimensions(32, 32)), ImageScaler.getDimensions(scaled.get()));
+    }
+
+    @Test
+    public void testProfilePicture() {
+        var scaled = ImageScaler.scale(createJpeg(800, 600), 640, true, "jpeg", 0.5F);
+        assertTrue(scaled.isPresent(), "Missing profile picture");
+        assertEquals(Optional.of(new MediaDimensions(640, 640)), ImageScaler.getDimensions(scaled.get()));
+    }
+
+    @Test
+    public void testDimensions() {
+        assertEquals(Optional.of(new MediaDimensions(800, 600)), ImageScaler.getDimensions(createJpeg(800, 600)));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void benchmarkThumbnail() {
+        var image = createJpeg(4000, 3000);
+        BenchmarkUtils.measure("Full decode thumbnail", WARMUP, ITERATIONS, () -> scaleFully(image, 32, "jpg"));
+        BenchmarkUtils.measure("Subsampled thumbnail", WARMUP, ITERATIONS,
+                               () -> ImageScaler.scale(image, 32, false, "jpg", -1));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void benchmarkProfilePicture() {
+        var image = createJpeg(4000, 3000);
+        BenchmarkUtils.measure("Full decode profile picture", WARMUP, ITERATIONS,
+                               () -> scaleFully(image, 640, "jpeg"));
+        BenchmarkUtils.measure("Subsampled profile picture", WARMUP, ITERATIONS,
+                               () -> ImageScaler.scale(image, 640, true, "jpeg", 0.5F));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void benchmarkDimensions() {
+        var image = createJpeg(4000, 3000);
+        BenchmarkUtils.measure("Full decode dimensions", WARMUP, ITERATIONS, () -> {
+            var decoded = readFully(image);
+            return new MediaDimensions(decoded.getWidth(), decoded.getHeight());
+        });
+        BenchmarkUtils.measure("Header dimensions", WARMUP, ITERATIONS, () -> ImageScaler.getDimensions(image));
+    }
+
+    private byte[] createJpeg(int width, int height) {
+        try {
+            var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            var graphics = image.createGraphics();
+            try {
+                graphics.setPaint(new GradientPaint(0, 0, Color.RED, width, height, Color.BLUE));
+                graphics.fillRect(0, 0, width, height);
+            } finally {
+                graphics.dispose();
+            }
+
+            var output = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", output);
+            return output.toByteArray();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private byte[] scaleFully(byte[] image, int size, String format) {
+        try {
+            var decoded = readFully(image);
+            var resized = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            var graphics = resized.createGraphics();
+            try {
+                graphics.drawImage(decoded, 0, 0, size, size, null);
+            } finally {
+                graphics.dispose();
+            }
+
+            var output = new ByteArrayOutputStream();
+            ImageIO.write(resized, format, output);
+            return output.toByteArray();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private BufferedImage readFully(byte[] image) {
+        try {
+            return ImageIO.read(new ByteArrayInputStream(image));
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package it.auties.whatsapp.util;
+
+import it.auties.bytes.Bytes;
+import it.auties.whatsapp.crypto.AesCbc;
+import it.auties.whatsapp.crypto.Hmac;
+import it.auties.whatsapp.crypto.Sha256;
+import it.auties.whatsapp.exception.HmacValidationException;
+import it.auties.whatsapp.model.media.MediaKeys;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MediaDecryptionStreamTest {
+    private static final String MEDIA_NAME = "WhatsApp Image Keys";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        var keys = MediaKeys.random(MEDIA_NAME);
+        for (var size : new int[]{0, 1, 15, 16, 17, 64 * 1024, 64 * 1024 + 7, 300_000}) {
+            var media = Bytes.ofRandom(size)
+                    .toByteArray();
+            var encrypted = encrypt(media, keys);
+            try (var stream = new MediaDecryptionStream(new ByteArrayInputStream(encrypted), keys,
+                                                        Sha256.calculate(encrypted), size)) {
+                assertArrayEquals(media, stream.readAllBytes(), "Invalid plaintext for size %s".formatted(size));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallReads() throws Exception {
+        var keys = MediaKeys.random(MEDIA_NAME);
+        var media = Bytes.ofRandom(1000)
+                .toByteArray();
+        var encrypted = encrypt(media, keys);
+        var source = new ByteArrayInputStream(encrypted) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, 3));
+            }
+        };
+        try (var stream = new MediaDecryptionStream(source, keys, Sha256.calculate(encrypted), media.length)) {
+            var result = new byte[media.length];
+            for (var i = 0; i < result.length; i++) {
+                var read = stream.read();
+                assertNotEquals(-1, read);
+                result[i] = (byte) read;
+            }
+
+            assertEquals(-1, stream.read());
+            assertArrayEquals(media, result);
+        }
+    }
+
+    @Test
+    public void testInvalidMac() throws Exception {
+        var keys = MediaKeys.random(MEDIA_NAME);
+        var encrypted = encrypt(Bytes.ofRandom(5000)
+                                        .toByteArray(), keys);
+        encrypted[encrypted.length - 1] ^= 1;
+        try (var stream = new MediaDecryptionStream(new ByteArrayInputStream(encrypted), keys,
+                                                    Sha256.calculate(encrypted), 5000)) {
+            assertThrows(HmacValidationException.class, stream::readAllBytes);
+        }
+    }
+
+    @Test
+    public void testInvalidSha256() throws Exception {
+        var keys = MediaKeys.random(MEDIA_NAME);
+        var encrypted = encrypt(Bytes.ofRandom(5000)
+                                        .toByteArray(), keys);
+        var expectedSha256 = Sha256.calculate(encrypted);
+        encrypted[0] ^= 1;
+        try (var stream = new MediaDecryptionStream(new ByteArrayInputStream(encrypted), keys, expectedSha256,
+                                                    5000)) {
+            assertThrows(SecurityException.class, stream::readAllBytes);
+        }
+    }
+
+    @Test
+    public void testTruncatedMedia() throws Exception {
+        var keys = MediaKeys.random(MEDIA_NAME);
+        var encrypted = encrypt(Bytes.ofRandom(5000)
+                                        .toByteArray(), keys);
+        var truncated = Arrays.copyOf(encrypted, 5);
+        try (var stream = new MediaDecryptionStream(new ByteArrayInputStream(truncated), keys,
+                                                    Sha256.calculate(encrypted), 5000)) {
+            assertThrows(SecurityException.class, stream::readAllBytes);
+        }
+    }
+
+    private byte[] encrypt(byte[] media, MediaKeys keys) throws IOException {
+        try {
+            var cipher = AesCbc.createCipher(Cipher.ENCRYPT_MODE, keys.iv(), keys.cipherKey());
+            var ciphertext = cipher.doFinal(media);
+            var mac = Hmac.createSha256(keys.macKey());
+            mac.update(keys.iv());
+            var hmac = Arrays.copyOf(mac.doFinal(ciphertext), Medias.MEDIA_MAC_LENGTH);
+            return Bytes.of(ciphertext)
+                    .append(hmac)
+                    .toByteArray();
+        } catch (Exception exception) {
+            throw new IOException("Cannot encrypt media", exception);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package it.auties.whatsapp.util;
+
+import it.auties.bytes.Bytes;
+import it.auties.whatsapp.model.media.MediaDimensions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MediaProbeTest {
+    @Test
+    public void testMp4() {
+        var media = createMp4(movieHeader(0, 1000, 42_500), trackHeader(0, 1280, 720));
+        assertEquals(Optional.of(42), MediaProbe.getDuration(media));
+        assertEquals(Optional.of(new MediaDimensions(1280, 720)), MediaProbe.getDimensions(media));
+    }
+
+    @Test
+    public void testMp4Version1() {
+        var media = createMp4(movieHeader(1, 600, 600L * 3600), trackHeader(1, 640, 480));
+        assertEquals(Optional.of(3600), MediaProbe.getDuration(media));
+        assertEquals(Optional.of(new MediaDimensions(640, 480)), MediaProbe.getDimensions(media));
+    }
+
+    @Test
+    public void testMp4LargeBox() {
+        var moov = box("moov", Bytes.of(box("mvhd", movieHeader(0, 10, 100)))
+                .append(box("trak", box("tkhd", trackHeader(0, 320, 240))))
+                .toByteArray());
+        var large = ByteBuffer.allocate(16 + moov.length - 8)
+                .putInt(1)
+                .put("moov".getBytes(StandardCharsets.US_ASCII))
+                .putLong(16 + moov.length - 8)
+                .put(moov, 8, moov.length - 8)
+                .array();
+        var media = Bytes.of(box("ftyp", new byte[8]))
+                .append(large)
+                .toByteArray();
+        assertEquals(Optional.of(10), MediaProbe.getDuration(media));
+        assertEquals(Optional.of(new MediaDimensions(320, 240)), MediaProbe.getDimensions(media));
+    }
+
+    @Test
+    public void testMp4WithoutVideoTrack() {
+        var media = createMp4(movieHeader(0, 1000, 5000), trackHeader(0, 0, 0));
+        assertEquals(Optional.of(5), MediaProbe.getDuration(media));
+        assertEquals(Optional.empty(), MediaProbe.getDimensions(media));
+    }
+
+    @Test
+    public void testOpus() {
+        var head = ByteBuffer.allocate(19)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .put("OpusHead".getBytes(StandardCharsets.US_ASCII))
+                .put((byte) 1)
+                .put((byte) 1)
+                .putShort((short) 312)
+                .putInt(48000)
+                .array();
+        var media = Bytes.of(oggPage(0, head))
+                .append(oggPage(312 + 48000L * 7, new byte[32]))
+                .toByteArray();
+        assertEquals(Optional.of(7), MediaProbe.getDuration(media));
+        assertEquals(Optional.empty(), MediaProbe.getDimensions(media));
+    }
+
+    @Test
+    public void testVorbis() {
+        var head = ByteBuffer.allocate(30)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .put("\u0001vorbis".getBytes(StandardCharsets.US_ASCII))
+                .putInt(0)
+                .put((byte) 2)
+                .putInt(44100)
+                .array();
+        var media = Bytes.of(oggPage(0, head))
+                .append(oggPage(44100L * 12 + 5, new byte[16]))
+                .toByteArray();
+        assertEquals(Optional.of(12), MediaProbe.getDuration(media));
+    }
+
+    @Test
+    public void testInvalidMedia() {
+        assertEquals(Optional.empty(), MediaProbe.getDuration(new byte[0]));
+        assertEquals(Optional.empty(), MediaProbe.getDuration(Bytes.ofRandom(1024)
+                                                                     .toByteArray()));
+        var media = createMp4(movieHeader(0, 1000, 42_500), trackHeader(0, 1280, 720));
+        var truncated = Arrays.copyOf(media, 64);
+        assertEquals(Optional.empty(), MediaProbe.getDuration(truncated));
+        assertEquals(Optional.empty(), MediaProbe.getDimensions(truncated));
+    }
+
+    private byte[] createMp4(byte[] movieHeader, byte[] trackHeader) {
+        var moov = Bytes.of(box("mvhd", movieHeader))
+                .append(box("trak", box("tkhd", trackHeader)))
+                .toByteArray();
+        return Bytes.of(box("ftyp", new byte[8]))
+                .append(box("moov", moov))
+                .append(box("mdat", new byte[64]))
+                .toByteArray();
+    }
+
+    private byte[] box(String type, byte[] content) {
+        return ByteBuffer.allocate(8 + content.length)
+                .putInt(8 + content.length)
+                .put(type.getBytes(StandardCharsets.US_ASCII))
+                .put(content)
+                .array();
+    }
+
+    private byte[] movieHeader(int version, int timescale, long duration) {
+        var buffer = ByteBuffer.allocate(version == 1 ?
+                                                 112 :
+                                                 100);
+        buffer.put(0, (byte) version);
+        if (version == 1) {
+            buffer.putInt(20, timescale);
+            buffer.putLong(24, duration);
+        } else {
+            buffer.putInt(12, timescale);
+            buffer.putInt(16, (int) duration);
+        }
+
+        return buffer.array();
+    }
+
+    private byte[] trackHeader(int version, int width, int height) {
+        var offset = version == 1 ?
+                88 :
+                76;
+        return ByteBuffer.allocate(offset + 8)
+                .put(0, (byte) version)
+                .putInt(offset, width << 16)
+                .putInt(offset + 4, height << 16)
+                .array();
+    }
+
+    private byte[] oggPage(long granule, byte[] packet) {
+        return ByteBuffer.allocate(28 + packet.length)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .put("OggS".getBytes(StandardCharsets.US_ASCII))
+                .put((byte) 0)
+                .put((byte) 0)
+                .putLong(granule)
+                .putInt(1)
+                .putInt(0)
+                .putInt(0)
+                .put((byte) 1)
+                .put((byte) packet.length)
+                .put(packet)
+                .array();
+    }
+}
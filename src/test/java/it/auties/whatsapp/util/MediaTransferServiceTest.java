@@ -0,0 +1,35 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.model.media.MediaFile;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MediaTransferServiceTest {
+    private static final String KEY = "IMAGE:00";
+
+    @Test
+    public void testUploadsPerService() {
+        var first = new MediaTransferService();
+        var second = new MediaTransferService();
+        var file = createFile();
+        first.cacheUpload(KEY, file, Duration.ofMinutes(1));
+        assertEquals(Optional.of(file), first.findUpload(KEY));
+        assertEquals(Optional.empty(), second.findUpload(KEY));
+    }
+
+    @Test
+    public void testClearUploads() {
+        var transfers = new MediaTransferService();
+        transfers.cacheUpload(KEY, createFile(), Duration.ofMinutes(1));
+        transfers.clearUploads();
+        assertEquals(Optional.empty(), transfers.findUpload(KEY));
+    }
+
+    private MediaFile createFile() {
+        return new MediaFile(new byte[32], new byte[32], new byte[32], 0, "/direct", "https://example.com");
+    }
+}
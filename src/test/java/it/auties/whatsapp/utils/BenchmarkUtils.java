@@ -0,0 +1,32 @@
+package it.auties.whatsapp.utils;
+
+import lombok.experimental.UtilityClass;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import static java.lang.System.Logger.Level.INFO;
+
+// Benchmarks are tagged as such so that they run only with the benchmark profile
+@UtilityClass
+public class BenchmarkUtils {
+    private final System.Logger LOGGER = System.getLogger("Benchmark");
+
+    // The results are consumed so that the work cannot be eliminated as dead code
+    private volatile Object sink;
+
+    public Duration measure(String name, int warmup, int iterations, Supplier<?> task) {
+        for (var i = 0; i < warmup; i++) {
+            sink = task.get();
+        }
+
+        var start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) {
+            sink = task.get();
+        }
+
+        var average = Duration.ofNanos((System.nanoTime() - start) / iterations);
+        LOGGER.log(INFO, "%s: %s us/op over %s iterations".formatted(name, average.toNanos() / 1000D, iterations));
+        return average;
+    }
+}
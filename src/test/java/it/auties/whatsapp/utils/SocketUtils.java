@@ -0,0 +1,48 @@
+package it.auties.whatsapp.utils;
+
+import it.auties.whatsapp.api.Whatsapp;
+import it.auties.whatsapp.api.Whatsapp.Options;
+import it.auties.whatsapp.controller.Keys;
+import it.auties.whatsapp.controller.Store;
+import it.auties.whatsapp.model.contact.ContactJid;
+import it.auties.whatsapp.socket.SocketHandler;
+import lombok.experimental.UtilityClass;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+@UtilityClass
+public class SocketUtils {
+    public final int STORE_ID = 424242;
+
+    public Options createOptions() {
+        return Options.defaultOptions()
+                .withAutodetectListeners(false)
+                .withAutomaticallySubscribeToPresences(false);
+    }
+
+    public SocketHandler createSocket() {
+        return createSocket(createOptions(), SocketHandler::new);
+    }
+
+    public <T extends SocketHandler> T createSocket(Options options, SocketFactory<T> factory) {
+        var store = Store.random(STORE_ID, false);
+        var keys = Keys.random(STORE_ID, false);
+        return factory.create(Whatsapp.newConnection(options, store, keys), options, store, keys);
+    }
+
+    public List<ContactJid> jids(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(SocketUtils::jid)
+                .toList();
+    }
+
+    public ContactJid jid(int index) {
+        return ContactJid.of("39%08d@s.whatsapp.net".formatted(index));
+    }
+
+    @FunctionalInterface
+    public interface SocketFactory<T extends SocketHandler> {
+        T create(Whatsapp whatsapp, Options options, Store store, Keys keys);
+    }
+}